@@ -0,0 +1,23 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * AllocationCounter类：基准测试用的内存分配计数，StrategyBenchmark 和 PasswordBenchmark 共用
+ */
+final class AllocationCounter {
+    private AllocationCounter() {}
+
+    /**
+     * 当前线程累计分配的字节数，使用 HotSpot 的扩展接口；不支持时返回-1
+     */
+    static long currentThreadBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean) bean;
+            if (hotspot.isThreadAllocatedMemorySupported() && hotspot.isThreadAllocatedMemoryEnabled()) {
+                return hotspot.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+}
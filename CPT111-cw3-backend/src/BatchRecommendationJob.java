@@ -0,0 +1,167 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * BatchRecommendationJob类：离线为所有用户计算推荐
+ * 用户按用户名排序后分块交给固定大小的线程池并行计算，结果写入CSV：
+ * username,recommendations（电影ID以分号分隔，与 watchlist 的格式一致）。
+ * 交互式请求可以通过 readResults 读取结果并交给 RecommendationEngine.setPrecomputed 使用。
+ */
+public class BatchRecommendationJob {
+    private static final int USERS_PER_TASK = 512;
+
+    private final RecommendationEngine engine;
+    private final int threads;
+
+    /**
+     * 任务结果统计
+     */
+    public static class Report {
+        private final int users;
+        private final long elapsedNanos;
+
+        Report(int users, long elapsedNanos) {
+            this.users = users;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public int getUsers() {
+            return users;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedNanos / 1000000L;
+        }
+
+        public double getUsersPerSecond() {
+            if (elapsedNanos == 0) {
+                return 0;
+            }
+            return users * 1e9 / elapsedNanos;
+        }
+    }
+
+    public BatchRecommendationJob(RecommendationEngine engine, int threads) {
+        this.engine = engine;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * 为每个用户计算其角色允许的最大数量的推荐并写出结果
+     * @param users 全部用户
+     * @param outputPath 结果文件路径，先写临时文件再改名
+     */
+    public Report run(HashMap<String, User> users, String outputPath) throws IOException {
+        long start = System.nanoTime();
+        final List<User> sorted = new ArrayList<>(users.values());
+        Collections.sort(sorted, new Comparator<User>() {
+            @Override
+            public int compare(User a, User b) {
+                return a.getUsername().compareTo(b.getUsername());
+            }
+        });
+
+        final String[] rows = new String[sorted.size()];
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int from = 0; from < sorted.size(); from += USERS_PER_TASK) {
+                final int chunkStart = from;
+                final int chunkEnd = Math.min(from + USERS_PER_TASK, sorted.size());
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        for (int i = chunkStart; i < chunkEnd; i++) {
+                            rows[i] = formatRow(sorted.get(i));
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Batch recommendation interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Batch recommendation failed: " + e.getCause(), e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+
+        writeRows(outputPath, rows);
+        return new Report(rows.length, System.nanoTime() - start);
+    }
+
+    /**
+     * 读取批量任务的结果
+     * @return 用户名 → 按推荐顺序排列的电影ID
+     */
+    public static HashMap<String, ArrayList<String>> readResults(String path) throws IOException {
+        HashMap<String, ArrayList<String>> results = new HashMap<>();
+        MappedCsvReader reader = MappedCsvReader.open(path);
+        reader.nextRecord(); // header
+        while (reader.nextRecord()) {
+            if (reader.isBlankLine() || reader.fieldCount() < 2) {
+                continue;
+            }
+            ArrayList<String> movieIds = new ArrayList<>();
+            for (String id : reader.getString(1).split(";")) {
+                if (!id.trim().isEmpty()) {
+                    movieIds.add(id.trim());
+                }
+            }
+            results.put(reader.getString(0), movieIds);
+        }
+        return results;
+    }
+
+    private String formatRow(User user) {
+        ArrayList<Movie> recommendations =
+                engine.computeRecommendations(user, user.getRecommendationLimit());
+        StringBuilder movieIds = new StringBuilder();
+        for (Movie movie : recommendations) {
+            if (movieIds.length() > 0) {
+                movieIds.append(';');
+            }
+            movieIds.append(movie.getId());
+        }
+        List<String> row = new ArrayList<>();
+        row.add(user.getUsername());
+        row.add(movieIds.toString());
+        return String.join(",", FileManager.escapeCsv(row));
+    }
+
+    private static void writeRows(String outputPath, String[] rows) throws IOException {
+        File target = new File(outputPath);
+        File temp = new File(outputPath + ".tmp");
+        try (FileOutputStream output = new FileOutputStream(temp)) {
+            BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+            writer.write("username,recommendations");
+            writer.newLine();
+            for (String row : rows) {
+                writer.write(row);
+                writer.newLine();
+            }
+            writer.flush();
+        }
+        Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+}
@@ -0,0 +1,159 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * CatalogSnapshot类：movies.csv 的二进制快照
+ * 格式：魔数、版本、源CSV的长度和修改时间、跳过的行数、类型字典、
+ * 每部电影（长度前缀的ID和标题、类型编号、int年份、float评分），最后是CRC32校验和。
+ * 只有当快照记录的源文件信息与当前CSV一致时才会被使用。
+ */
+public class CatalogSnapshot {
+    private static final int MAGIC = 0x4D565331; // "MVS1"
+    private static final int VERSION = 1;
+
+    private final File snapshotFile;
+    private final File sourceFile;
+    private int skippedRows;
+
+    /**
+     * 构造函数
+     * @param sourcePath movies.csv 路径，快照保存在同目录下的 ".snapshot" 文件中
+     */
+    public CatalogSnapshot(String sourcePath) {
+        this.sourceFile = new File(sourcePath);
+        this.snapshotFile = new File(sourcePath + ".snapshot");
+    }
+
+    /**
+     * 读取快照
+     * @return 电影数据；如果快照不存在、已过期或校验失败返回null
+     */
+    public HashMap<String, Movie> read() throws IOException {
+        if (!snapshotFile.exists() || !sourceFile.exists()) {
+            return null;
+        }
+        if (snapshotFile.lastModified() < sourceFile.lastModified()) {
+            return null;
+        }
+        byte[] bytes = Files.readAllBytes(snapshotFile.toPath());
+        if (bytes.length < 8) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - 8);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (buffer.getLong(bytes.length - 8) != crc.getValue()) {
+            return null;
+        }
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return null;
+            }
+            long sourceLength = buffer.getLong();
+            long sourceModified = buffer.getLong();
+            if (sourceLength != sourceFile.length() || sourceModified != sourceFile.lastModified()) {
+                return null;
+            }
+            skippedRows = buffer.getInt();
+
+            int genreCount = buffer.getInt();
+            String[] genres = new String[genreCount];
+            for (int i = 0; i < genreCount; i++) {
+                genres[i] = readString(buffer, bytes);
+            }
+
+            int movieCount = buffer.getInt();
+            HashMap<String, Movie> result = new HashMap<>(movieCount * 4 / 3 + 1);
+            for (int i = 0; i < movieCount; i++) {
+                String id = readString(buffer, bytes);
+                String title = readString(buffer, bytes);
+                String genre = genres[buffer.getInt()];
+                int year = buffer.getInt();
+                // float 的最短十进制表示即CSV中的原始写法，例如 9.3
+                double rating = Double.parseDouble(Float.toString(buffer.getFloat()));
+                result.put(id, MovieFactory.createMovie(id, title, genre, year, rating));
+            }
+            return result;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 因字段数不足而在生成快照时被跳过的行数
+     */
+    public int getSkippedRows() {
+        return skippedRows;
+    }
+
+    /**
+     * 在CSV加载成功后写出快照，先写临时文件再改名
+     * @param movies 刚从CSV加载的电影
+     * @param skippedRows 加载时跳过的行数
+     */
+    public void write(HashMap<String, Movie> movies, int skippedRows) throws IOException {
+        long sourceLength = sourceFile.length();
+        long sourceModified = sourceFile.lastModified();
+
+        HashMap<String, Integer> genreCodes = new HashMap<>();
+        ArrayList<String> genres = new ArrayList<>();
+        for (Movie movie : movies.values()) {
+            if (!genreCodes.containsKey(movie.getGenre())) {
+                genreCodes.put(movie.getGenre(), genres.size());
+                genres.add(movie.getGenre());
+            }
+        }
+
+        File temp = new File(snapshotFile.getPath() + ".tmp");
+        try (BufferedOutputStream raw = new BufferedOutputStream(new FileOutputStream(temp))) {
+            CheckedOutputStream checked = new CheckedOutputStream(raw, new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(sourceLength);
+            out.writeLong(sourceModified);
+            out.writeInt(skippedRows);
+            out.writeInt(genres.size());
+            for (String genre : genres) {
+                writeString(out, genre);
+            }
+            out.writeInt(movies.size());
+            for (Movie movie : movies.values()) {
+                writeString(out, movie.getId());
+                writeString(out, movie.getTitle());
+                out.writeInt(genreCodes.get(movie.getGenre()));
+                out.writeInt(movie.getYear());
+                out.writeFloat((float) movie.getRating());
+            }
+            out.flush();
+            // 校验和本身不参与计算，直接写到底层流
+            new DataOutputStream(raw).writeLong(checked.getChecksum().getValue());
+        }
+        Files.move(temp.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static String readString(ByteBuffer buffer, byte[] bytes) {
+        int length = buffer.getInt();
+        int offset = buffer.position();
+        buffer.position(offset + length);
+        return new String(bytes, offset, length, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
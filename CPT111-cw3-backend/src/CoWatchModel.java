@@ -0,0 +1,363 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * CoWatchModel类：基于共同观看次数的物品-物品协同过滤模型
+ * 两部电影出现在同一个用户的观看历史中时，它们之间的计数加一。
+ * 稀疏矩阵按电影的字典编号存放（每部电影一行，只保存非零项），
+ * 另外为每部电影维护计数最高的M个邻居，推荐时只需要遍历 历史长度 × M 个邻居。
+ * 计数只会增加，因此新增观看记录时可以直接增量维护前M个邻居，不需要重建。
+ * 按需加载用户（LazyUserMap）时直接从原始行统计，不加载用户，用户加载后再挂上监听器。
+ */
+public class CoWatchModel implements History.WatchListener, LazyUserMap.LoadListener {
+    public static final int DEFAULT_NEIGHBORS = 20;
+
+    private static final int USERS_PER_TASK = 256;
+    private static final int ROWS_PER_TASK = 1024;
+
+    private final int maxNeighbors;
+    private Row[] rows = new Row[0];
+    private final HashSet<String> trackedUsers = new HashSet<>();
+
+    /**
+     * 稀疏矩阵中的一行：与某部电影共同出现过的所有电影的计数，以及计数最高的邻居
+     */
+    private static class Row {
+        private final HashMap<Integer, Integer> counts = new HashMap<>();
+        private int[] topHandles = new int[0];
+        private int[] topCounts = new int[0];
+        private int topSize;
+    }
+
+    public CoWatchModel(int maxNeighbors) {
+        this.maxNeighbors = Math.max(1, maxNeighbors);
+    }
+
+    /**
+     * 用全部用户的观看历史并行建立模型，之后通过监听器增量更新
+     * @param users 全部用户
+     * @param threads 线程数
+     */
+    public static CoWatchModel build(Collection<User> users, int maxNeighbors, int threads) {
+        LinkedHashMap<String, int[]> histories = new LinkedHashMap<>();
+        for (User user : users) {
+            histories.put(user.getUsername(), user.getHistory().getMovieHandles());
+        }
+        CoWatchModel model = build(histories, maxNeighbors, threads);
+        synchronized (model) {
+            for (User user : users) {
+                user.getHistory().setWatchListener(model);
+            }
+        }
+        return model;
+    }
+
+    /**
+     * 从按需加载的用户映射建立模型：从原始行统计全部用户，不把用户加载进内存；
+     * 已加载的用户立即挂上监听器，其余用户在加载时（userLoaded）挂上
+     * @param users 按需加载的全部用户
+     * @param threads 线程数
+     */
+    public static CoWatchModel build(LazyUserMap users, int maxNeighbors, int threads) {
+        CoWatchModel model = build(users.scanMovieHandles(), maxNeighbors, threads);
+        synchronized (model) {
+            for (User user : users.getLoadedUsers()) {
+                user.getHistory().setWatchListener(model);
+            }
+        }
+        users.setLoadListener(model);
+        return model;
+    }
+
+    /**
+     * 并行统计共同观看次数并选出每部电影的前M个邻居，这些用户都记为已计入
+     * @param histories 用户名 → 看过的电影编号
+     */
+    private static CoWatchModel build(Map<String, int[]> histories, int maxNeighbors, int threads) {
+        CoWatchModel model = new CoWatchModel(maxNeighbors);
+        ArrayList<int[]> handleLists = new ArrayList<>(histories.values());
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+        try {
+            HashMap<Integer, HashMap<Integer, Integer>> counts =
+                    pool.submit(new CountTask(handleLists, 0, handleLists.size())).get();
+            synchronized (model) {
+                model.ensureCapacity(StringDictionary.MOVIE_IDS.size());
+                for (Integer handle : counts.keySet()) {
+                    model.row(handle).counts.putAll(counts.get(handle));
+                }
+                pool.submit(model.new TopNeighborTask(0, model.rows.length)).get();
+                model.trackedUsers.addAll(histories.keySet());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Building co-watch model interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Unable to build co-watch model: " + e.getCause(), e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        return model;
+    }
+
+    /**
+     * 确保用户的观看历史已计入模型并被监听。
+     * 新注册的用户在这里第一次计入；按需加载后被淘汰又重新解析的用户只重新挂上监听器，不会重复计数
+     */
+    public synchronized void track(User user) {
+        History history = user.getHistory();
+        if (history.getWatchListener() == this) {
+            return;
+        }
+        if (trackedUsers.add(user.getUsername())) {
+            int[] handles = history.getMovieHandles();
+            for (int i = 0; i < handles.length; i++) {
+                for (int j = i + 1; j < handles.length; j++) {
+                    increment(handles[i], handles[j]);
+                    increment(handles[j], handles[i]);
+                }
+            }
+        }
+        history.setWatchListener(this);
+    }
+
+    /**
+     * 按需加载的用户被解析出来：已计入的只挂上监听器，新用户计入模型
+     */
+    @Override
+    public void userLoaded(User user) {
+        track(user);
+    }
+
+    /**
+     * 新电影与该用户看过的每部电影之间的计数加一
+     */
+    @Override
+    public synchronized void movieWatched(History history, int movieHandle) {
+        for (int handle : history.getMovieHandles()) {
+            if (handle != movieHandle) {
+                increment(movieHandle, handle);
+                increment(handle, movieHandle);
+            }
+        }
+    }
+
+    /**
+     * 计数最高的邻居，按计数从高到低
+     * @return 邻居的字典编号
+     */
+    public synchronized int[] getNeighbors(int movieHandle) {
+        if (movieHandle < 0 || movieHandle >= rows.length || rows[movieHandle] == null) {
+            return new int[0];
+        }
+        Row row = rows[movieHandle];
+        int[] neighbors = new int[row.topSize];
+        System.arraycopy(row.topHandles, 0, neighbors, 0, row.topSize);
+        return neighbors;
+    }
+
+    /**
+     * 两部电影被同一用户观看的次数
+     */
+    public synchronized int getCount(int movieHandle, int otherHandle) {
+        if (movieHandle < 0 || movieHandle >= rows.length || rows[movieHandle] == null) {
+            return 0;
+        }
+        return rows[movieHandle].counts.getOrDefault(otherHandle, 0);
+    }
+
+    /**
+     * 按观看历史给候选电影打分：对每部看过的电影，把它的每个邻居加上共同观看次数
+     * @return 候选电影编号 → 分数，不含已看过的电影
+     */
+    public synchronized HashMap<Integer, Integer> scoreNeighbors(int[] historyHandles) {
+        HashMap<Integer, Integer> scores = new HashMap<>();
+        HashSet<Integer> seen = new HashSet<>();
+        for (int handle : historyHandles) {
+            seen.add(handle);
+        }
+        for (int handle : historyHandles) {
+            if (handle < 0 || handle >= rows.length || rows[handle] == null) {
+                continue;
+            }
+            Row row = rows[handle];
+            for (int i = 0; i < row.topSize; i++) {
+                int neighbor = row.topHandles[i];
+                if (!seen.contains(neighbor)) {
+                    scores.put(neighbor, scores.getOrDefault(neighbor, 0) + row.topCounts[i]);
+                }
+            }
+        }
+        return scores;
+    }
+
+    private void increment(int movieHandle, int otherHandle) {
+        Row row = row(movieHandle);
+        int count = row.counts.getOrDefault(otherHandle, 0) + 1;
+        row.counts.put(otherHandle, count);
+        updateTop(row, otherHandle, count);
+    }
+
+    /**
+     * 计数只增不减：已在前M名中的邻居向前冒泡；不在其中的邻居超过第M名时替换它
+     */
+    private void updateTop(Row row, int otherHandle, int count) {
+        int position = -1;
+        for (int i = 0; i < row.topSize; i++) {
+            if (row.topHandles[i] == otherHandle) {
+                position = i;
+                break;
+            }
+        }
+        if (position < 0) {
+            if (row.topSize < maxNeighbors) {
+                if (row.topSize == row.topHandles.length) {
+                    int capacity = Math.min(maxNeighbors, Math.max(4, row.topSize * 2));
+                    int[] handles = new int[capacity];
+                    int[] counts = new int[capacity];
+                    System.arraycopy(row.topHandles, 0, handles, 0, row.topSize);
+                    System.arraycopy(row.topCounts, 0, counts, 0, row.topSize);
+                    row.topHandles = handles;
+                    row.topCounts = counts;
+                }
+                position = row.topSize;
+                row.topSize++;
+            } else if (count > row.topCounts[row.topSize - 1]) {
+                position = row.topSize - 1;
+            } else {
+                return;
+            }
+        }
+        row.topHandles[position] = otherHandle;
+        row.topCounts[position] = count;
+        while (position > 0 && row.topCounts[position - 1] < row.topCounts[position]) {
+            swap(row, position - 1, position);
+            position--;
+        }
+    }
+
+    private static void swap(Row row, int a, int b) {
+        int handle = row.topHandles[a];
+        row.topHandles[a] = row.topHandles[b];
+        row.topHandles[b] = handle;
+        int count = row.topCounts[a];
+        row.topCounts[a] = row.topCounts[b];
+        row.topCounts[b] = count;
+    }
+
+    private Row row(int movieHandle) {
+        ensureCapacity(movieHandle + 1);
+        Row row = rows[movieHandle];
+        if (row == null) {
+            row = new Row();
+            rows[movieHandle] = row;
+        }
+        return row;
+    }
+
+    private void ensureCapacity(int size) {
+        if (size <= rows.length) {
+            return;
+        }
+        Row[] grown = new Row[Math.max(size, rows.length * 2)];
+        System.arraycopy(rows, 0, grown, 0, rows.length);
+        rows = grown;
+    }
+
+    /**
+     * 并行统计一段用户的共同观看次数，结果按电影编号分行，再两两合并
+     */
+    private static class CountTask extends RecursiveTask<HashMap<Integer, HashMap<Integer, Integer>>> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<int[]> histories;
+        private final int from;
+        private final int to;
+
+        CountTask(List<int[]> histories, int from, int to) {
+            this.histories = histories;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected HashMap<Integer, HashMap<Integer, Integer>> compute() {
+            if (to - from <= USERS_PER_TASK) {
+                HashMap<Integer, HashMap<Integer, Integer>> counts = new HashMap<>();
+                for (int u = from; u < to; u++) {
+                    int[] handles = histories.get(u);
+                    for (int i = 0; i < handles.length; i++) {
+                        for (int j = i + 1; j < handles.length; j++) {
+                            add(counts, handles[i], handles[j], 1);
+                            add(counts, handles[j], handles[i], 1);
+                        }
+                    }
+                }
+                return counts;
+            }
+            int middle = (from + to) / 2;
+            CountTask left = new CountTask(histories, from, middle);
+            CountTask right = new CountTask(histories, middle, to);
+            right.fork();
+            HashMap<Integer, HashMap<Integer, Integer>> counts = left.compute();
+            HashMap<Integer, HashMap<Integer, Integer>> other = right.join();
+            for (Integer handle : other.keySet()) {
+                HashMap<Integer, Integer> row = other.get(handle);
+                for (Integer neighbor : row.keySet()) {
+                    add(counts, handle, neighbor, row.get(neighbor));
+                }
+            }
+            return counts;
+        }
+
+        private static void add(HashMap<Integer, HashMap<Integer, Integer>> counts, int handle, int neighbor,
+                                int amount) {
+            HashMap<Integer, Integer> row = counts.get(handle);
+            if (row == null) {
+                row = new HashMap<>();
+                counts.put(handle, row);
+            }
+            row.put(neighbor, row.getOrDefault(neighbor, 0) + amount);
+        }
+    }
+
+    /**
+     * 并行为每一行选出计数最高的M个邻居（各行互不影响）
+     */
+    private class TopNeighborTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        TopNeighborTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= ROWS_PER_TASK) {
+                for (int i = from; i < to; i++) {
+                    if (rows[i] != null) {
+                        Row row = rows[i];
+                        for (Integer neighbor : row.counts.keySet()) {
+                            updateTop(row, neighbor, row.counts.get(neighbor));
+                        }
+                    }
+                }
+                return;
+            }
+            int middle = (from + to) / 2;
+            invokeAll(new TopNeighborTask(from, middle), new TopNeighborTask(middle, to));
+        }
+    }
+}
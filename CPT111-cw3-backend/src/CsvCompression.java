@@ -0,0 +1,113 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * CsvCompression类：gzip 压缩的数据文件
+ * 输入按文件头的魔数识别，与文件名无关；压缩文件不能内存映射，
+ * 因此由 MappedCsvReader 边解压边解析（openInflated），不产生临时文件，也不把整个文件读进内存。
+ * 只有 LazyUserMap 需要按偏移随机访问整个文件，这时才用 inflate 整个解压到内存（上限 2GB），
+ * 该缓冲区在懒加载期间一直被引用；很大的用户文件在懒加载模式下应保存为普通CSV（--compress-output=0）。
+ */
+public final class CsvCompression {
+    /** 不压缩输出 */
+    public static final int NONE = 0;
+
+    private static final int GZIP_MAGIC_1 = 0x1f;
+    private static final int GZIP_MAGIC_2 = 0x8b;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private CsvCompression() {}
+
+    /**
+     * 检查文件是否是 gzip 格式
+     */
+    public static boolean isCompressed(File file) throws IOException {
+        if (file.length() < 2) {
+            return false;
+        }
+        try (InputStream input = new FileInputStream(file)) {
+            return input.read() == GZIP_MAGIC_1 && input.read() == GZIP_MAGIC_2;
+        }
+    }
+
+    /**
+     * 打开解压流，由调用者关闭
+     */
+    public static InputStream openInflated(File file) throws IOException {
+        return new GZIPInputStream(new FileInputStream(file), BUFFER_SIZE);
+    }
+
+    /**
+     * 把整个文件解压到内存，只用于需要随机访问的 LazyUserMap
+     * @return 解压后的数据，position 为0
+     * @throws IOException 解压后超过 2GB 时
+     */
+    public static ByteBuffer inflate(File file) throws IOException {
+        // gzip 尾部记录了原始长度（模 2^32），用来一次分配足够的缓冲区
+        byte[] data = new byte[Math.max(BUFFER_SIZE, originalSizeHint(file))];
+        int length = 0;
+        try (InputStream input = openInflated(file)) {
+            int read;
+            while ((read = input.read(data, length, data.length - length)) >= 0) {
+                length += read;
+                if (length == data.length) {
+                    if (data.length > Integer.MAX_VALUE / 2) {
+                        throw new IOException("File too large to load: " + file.getPath());
+                    }
+                    byte[] grown = new byte[data.length * 2];
+                    System.arraycopy(data, 0, grown, 0, length);
+                    data = grown;
+                }
+            }
+        }
+        return ByteBuffer.wrap(data, 0, length);
+    }
+
+    /**
+     * 包装输出流
+     * @param output 文件输出流
+     * @param level 压缩级别 1-9，NONE 表示不压缩
+     * @return 需要调用 close 或 finish 才会写出 gzip 尾部的流
+     */
+    public static OutputStream compress(OutputStream output, final int level) throws IOException {
+        if (level == NONE) {
+            return output;
+        }
+        return new GZIPOutputStream(output, BUFFER_SIZE) {
+            {
+                def.setLevel(level);
+            }
+        };
+    }
+
+    /**
+     * 写出 gzip 尾部但不关闭底层文件流，之后还可以 fsync
+     */
+    public static void finish(OutputStream output) throws IOException {
+        if (output instanceof GZIPOutputStream) {
+            ((GZIPOutputStream) output).finish();
+        }
+    }
+
+    private static int originalSizeHint(File file) throws IOException {
+        try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+            if (input.length() < 4) {
+                return 0;
+            }
+            input.seek(input.length() - 4);
+            int size = Integer.reverseBytes(input.readInt());
+            if (size < 0 || size == Integer.MAX_VALUE) {
+                return 0;
+            }
+            // 多出一个字节，刚好读完时不需要扩容就能看到流结束
+            return size + 1;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+import java.io.IOException;
+import java.util.HashMap;
+
+/**
+ * DataRepositories类：根据命令行参数选择的电影和用户存储
+ * 电影始终来自CSV；用户可以来自CSV（默认）或嵌入式键值存储
+ */
+public class DataRepositories {
+    public static final String CSV = "csv";
+    public static final String EMBEDDED = "embedded";
+
+    private final FileManager fileManager;
+    private final UserRepository userRepository;
+
+    private DataRepositories(FileManager fileManager, UserRepository userRepository) {
+        this.fileManager = fileManager;
+        this.userRepository = userRepository;
+    }
+
+    /**
+     * 打开存储
+     * @param fileManager CSV存储
+     * @param userBackend 用户存储类型：CSV 或 EMBEDDED
+     * @param usersPath users.csv 路径，嵌入式存储保存在同目录下的 ".db" 文件中，第一次使用时从CSV导入
+     */
+    public static DataRepositories open(FileManager fileManager, String userBackend, String usersPath)
+            throws IOException {
+        if (EMBEDDED.equalsIgnoreCase(userBackend)) {
+            return new DataRepositories(fileManager, EmbeddedUserStore.open(usersPath + ".db", fileManager));
+        }
+        return new DataRepositories(fileManager, fileManager);
+    }
+
+    public MovieRepository getMovieRepository() {
+        return fileManager;
+    }
+
+    public UserRepository getUserRepository() {
+        return userRepository;
+    }
+
+    /**
+     * 加载电影和用户；两者都是CSV时由 FileManager 同时加载
+     */
+    public LoadedData load() throws IOException {
+        if (userRepository == fileManager) {
+            return fileManager.loadAll();
+        }
+        LoadedData movieData = fileManager.loadMovieData();
+        HashMap<String, User> users = userRepository.loadUsers();
+        return new LoadedData(movieData.getMovies(), users, movieData.getSkippedMovieRows(), 0);
+    }
+}
@@ -0,0 +1,280 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * EmbeddedUserStore类：进程内的用户键值存储，不需要数据库服务
+ * 这是只追加的日志文件加内存索引，不是磁盘上的B树：数据文件只追加记录（用户名 → 该用户的CSV行），
+ * 内存中的 TreeMap 保存每个用户最新记录的偏移，因此读写单个用户是 O(log n)，不需要重写整个文件；
+ * 代价是索引常驻内存（每个用户一项），启动时要顺序扫描一次文件重建。
+ * 失效记录超过一半时在关闭时压缩。
+ *
+ * 记录格式：int 键长度、int 值长度（-1 表示删除）、int CRC32、键字节、值字节
+ */
+public class EmbeddedUserStore implements UserRepository {
+    private static final int HEADER_BYTES = 12;
+
+    private final File file;
+    private final RandomAccessFile randomAccess;
+    private final FileChannel channel;
+    private final TreeMap<String, Long> index = new TreeMap<>();
+    private long liveBytes;
+
+    private EmbeddedUserStore(File file) throws IOException {
+        this.file = file;
+        this.randomAccess = new RandomAccessFile(file, "rw");
+        this.channel = randomAccess.getChannel();
+        rebuildIndex();
+    }
+
+    /**
+     * 打开存储；第一次使用时从另一个存储（通常是 users.csv）导入全部用户
+     * @param path 数据文件路径
+     * @param seed 数据文件不存在时的导入来源，可以为null
+     */
+    public static EmbeddedUserStore open(String path, UserRepository seed) throws IOException {
+        File file = new File(path);
+        boolean isNew = !file.exists() || file.length() == 0;
+        EmbeddedUserStore store = new EmbeddedUserStore(file);
+        if (isNew && seed != null) {
+            store.saveUsers(seed.loadUsers());
+        }
+        return store;
+    }
+
+    public synchronized int size() {
+        return index.size();
+    }
+
+    /**
+     * 读取单个用户
+     * @return 不存在时返回null
+     */
+    public synchronized User getUser(String username) throws IOException {
+        Long offset = index.get(username);
+        if (offset == null) {
+            return null;
+        }
+        return parseRow(readValue(offset));
+    }
+
+    /**
+     * 写入单个用户（追加新版本并更新索引）
+     */
+    public synchronized void putUser(User user) throws IOException {
+        writeRecord(user.getUsername(), FileManager.formatUserRow(user));
+        channel.force(false);
+    }
+
+    @Override
+    public synchronized HashMap<String, User> loadUsers() throws IOException {
+        HashMap<String, User> result = new HashMap<>();
+        for (Map.Entry<String, Long> entry : index.entrySet()) {
+            User user = parseRow(readValue(entry.getValue()));
+            if (user != null) {
+                result.put(entry.getKey(), user);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized void saveUsers(HashMap<String, User> users) throws IOException {
+        for (User user : users.values()) {
+            writeRecord(user.getUsername(), FileManager.formatUserRow(user));
+        }
+        channel.force(false);
+    }
+
+    @Override
+    public String[] prepareChange(String operation, User user, String... values) {
+        return UserJournal.record(operation, user.getUsername(), values);
+    }
+
+    /**
+     * 把记录应用到存储中的用户：同一批里被多次修改的用户只写一次
+     */
+    @Override
+    public synchronized void appendChanges(List<String[]> records) throws IOException {
+        HashMap<String, User> touched = new HashMap<>();
+        for (String[] record : records) {
+            if (record.length < 2) {
+                continue;
+            }
+            String username = record[1].trim();
+            if (!touched.containsKey(username)) {
+                User stored = getUser(username);
+                if (stored != null) {
+                    touched.put(username, stored);
+                }
+            }
+            UserJournal.apply(record, touched);
+        }
+        if (touched.isEmpty()) {
+            return;
+        }
+        for (User user : touched.values()) {
+            writeRecord(user.getUsername(), FileManager.formatUserRow(user));
+        }
+        channel.force(false);
+    }
+
+    /**
+     * 所有修改都已经通过 appendChanges 写入，这里只在失效记录过多时压缩并关闭文件
+     */
+    @Override
+    public synchronized void close(HashMap<String, User> users) throws IOException {
+        if (channel.size() > liveBytes * 2) {
+            compact();
+        }
+        randomAccess.close();
+    }
+
+    private void rebuildIndex() throws IOException {
+        long position = 0;
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        while (position + HEADER_BYTES <= size) {
+            header.clear();
+            readFully(header, position);
+            header.flip();
+            int keyLength = header.getInt();
+            int valueLength = header.getInt();
+            int checksum = header.getInt();
+            // 头部可能损坏：按 long 计算长度，超出文件剩余部分的记录和之后的内容都丢弃
+            long payloadLength = (long) keyLength + Math.max(valueLength, 0);
+            if (keyLength < 0 || valueLength < -1 || payloadLength > size - position - HEADER_BYTES
+                    || payloadLength > Integer.MAX_VALUE) {
+                break;
+            }
+            ByteBuffer payload = ByteBuffer.allocate((int) payloadLength);
+            readFully(payload, position + HEADER_BYTES);
+            if (checksum(payload.array()) != checksum) {
+                break;
+            }
+            String key = new String(payload.array(), 0, keyLength, StandardCharsets.UTF_8);
+            Long previous = index.remove(key);
+            if (previous != null) {
+                liveBytes -= recordLength(previous);
+            }
+            if (valueLength >= 0) {
+                index.put(key, position);
+                liveBytes += HEADER_BYTES + payloadLength;
+            }
+            position += HEADER_BYTES + payloadLength;
+        }
+        if (position < size) {
+            // 末尾是崩溃时没写完的记录或损坏的记录，从第一条坏记录开始截掉
+            channel.truncate(position);
+        }
+    }
+
+    private void writeRecord(String key, String value) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+        byte[] payload = new byte[keyBytes.length + valueBytes.length];
+        System.arraycopy(keyBytes, 0, payload, 0, keyBytes.length);
+        System.arraycopy(valueBytes, 0, payload, keyBytes.length, valueBytes.length);
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + payload.length);
+        buffer.putInt(keyBytes.length);
+        buffer.putInt(valueBytes.length);
+        buffer.putInt(checksum(payload));
+        buffer.put(payload);
+        buffer.flip();
+
+        long position = channel.size();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+        Long previous = index.put(key, position);
+        if (previous != null) {
+            liveBytes -= recordLength(previous);
+        }
+        liveBytes += HEADER_BYTES + payload.length;
+    }
+
+    private String readValue(long offset) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        readFully(header, offset);
+        header.flip();
+        int keyLength = header.getInt();
+        int valueLength = header.getInt();
+        ByteBuffer value = ByteBuffer.allocate(valueLength);
+        readFully(value, offset + HEADER_BYTES + keyLength);
+        return new String(value.array(), StandardCharsets.UTF_8);
+    }
+
+    private long recordLength(long offset) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(8);
+        readFully(header, offset);
+        header.flip();
+        int keyLength = header.getInt();
+        int valueLength = header.getInt();
+        return HEADER_BYTES + keyLength + Math.max(valueLength, 0);
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("Unexpected end of user store " + file.getPath());
+            }
+        }
+    }
+
+    /**
+     * 只保留每个用户的最新记录，写到临时文件后原子替换
+     */
+    private void compact() throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        List<String> keys = new ArrayList<>(index.keySet());
+        try (RandomAccessFile output = new RandomAccessFile(temp, "rw")) {
+            output.setLength(0);
+            for (String key : keys) {
+                String value = readValue(index.get(key));
+                byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+                byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+                byte[] payload = new byte[keyBytes.length + valueBytes.length];
+                System.arraycopy(keyBytes, 0, payload, 0, keyBytes.length);
+                System.arraycopy(valueBytes, 0, payload, keyBytes.length, valueBytes.length);
+                output.writeInt(keyBytes.length);
+                output.writeInt(valueBytes.length);
+                output.writeInt(checksum(payload));
+                output.write(payload);
+            }
+            output.getFD().sync();
+        }
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static User parseRow(String row) {
+        MappedCsvReader reader = new MappedCsvReader(ByteBuffer.wrap(row.getBytes(StandardCharsets.UTF_8)));
+        if (!reader.nextRecord()) {
+            return null;
+        }
+        return FileManager.parseUserRow(reader);
+    }
+
+    private static int checksum(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+}
@@ -1,127 +1,680 @@
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 
-public class FileManager {
+/**
+ * FileManager类：基于CSV文件的电影和用户存储
+ */
+public class FileManager implements MovieRepository, UserRepository {
+    private static final long DEFAULT_JOURNAL_THRESHOLD_BYTES = 256 * 1024;
+    private static final long DEFAULT_USER_IDLE_MILLIS = 30 * 60 * 1000;
+
     private final String moviesFilePath;
     private final String usersFilePath;
+    private final UserJournal journal;
+    private final CatalogSnapshot catalogSnapshot;
+    private final long journalThresholdBytes;
+    private final Object snapshotLock = new Object();
+    private int loadThreads = 1;
+    private boolean lazyUsers;
+    private LazyUserMap activeLazyUsers;
+    private long userIdleMillis = DEFAULT_USER_IDLE_MILLIS;
+    private int userShards = 1;
+    private int outputCompression = CsvCompression.NONE;
+    private final HashSet<Integer> dirtyShards = new HashSet<>();
 
     public FileManager(String moviesFilePath, String usersFilePath) {
+        this(moviesFilePath, usersFilePath, DEFAULT_JOURNAL_THRESHOLD_BYTES);
+    }
+
+    public FileManager(String moviesFilePath, String usersFilePath, long journalThresholdBytes) {
         this.moviesFilePath = moviesFilePath;
         this.usersFilePath = usersFilePath;
+        this.journal = new UserJournal(usersFilePath + ".journal");
+        this.catalogSnapshot = new CatalogSnapshot(moviesFilePath);
+        this.journalThresholdBytes = journalThresholdBytes;
+    }
+
+    /**
+     * 设置启动加载使用的线程数，大于1时按行边界分块并行解析
+     */
+    public void setLoadThreads(int loadThreads) {
+        if (loadThreads < 1) {
+            this.loadThreads = 1;
+        } else {
+            this.loadThreads = loadThreads;
+        }
+    }
+
+    /**
+     * 启用按需加载用户：启动时只建立用户名到行偏移的索引
+     * @param lazyUsers 是否按需加载
+     * @param idleMillis 未修改的用户空闲多久后可以从内存中淘汰
+     */
+    public void setLazyUsers(boolean lazyUsers, long idleMillis) {
+        this.lazyUsers = lazyUsers;
+        this.userIdleMillis = idleMillis;
+    }
+
+    /**
+     * 把用户分散到N个分片文件中（按用户名的稳定哈希分配），N为1时使用单个 users.csv。
+     * 分片文件由 migrateToShards 生成；分片模式下不支持按需加载用户
+     */
+    public void setUserShards(int userShards) {
+        if (userShards < 1) {
+            this.userShards = 1;
+        } else {
+            this.userShards = userShards;
+        }
     }
 
+    /**
+     * 设置保存用户时的压缩级别：1-9 写出 gzip 格式（文件名不变），CsvCompression.NONE 写出普通CSV。
+     * 读取时按文件内容自动识别，两种格式可以混用
+     */
+    public void setOutputCompression(int level) {
+        if (level < CsvCompression.NONE || level > 9) {
+            throw new IllegalArgumentException("Compression level must be between 0 and 9: " + level);
+        }
+        this.outputCompression = level;
+    }
+
+    /**
+     * 用户所在的分片。String.hashCode 的算法由语言规范固定，不同进程和版本之间保持一致
+     */
+    static int shardOf(String username, int shardCount) {
+        return Math.floorMod(username.hashCode(), shardCount);
+    }
+
+    /**
+     * 分片文件路径，文件名中包含分片总数，分片数不一致时不会误读其他布局的文件
+     */
+    String shardPath(int shard) {
+        return usersFilePath + ".shard-" + shard + "-of-" + userShards;
+    }
+
+    @Override
     public HashMap<String, Movie> loadMovies() throws IOException {
-        HashMap<String, Movie> result = new HashMap<>();
-        try (BufferedReader reader = new BufferedReader(new FileReader(moviesFilePath))) {
-            String line = reader.readLine(); // skip the top 
-            while ((line = reader.readLine()) != null) {
-                if (line.trim().isEmpty()) {
-                    continue;
+        return loadAll(true, false).getMovies();
+    }
+
+    @Override
+    public HashMap<String, User> loadUsers() throws IOException {
+        return loadAll(false, true).getUsers();
+    }
+
+    /**
+     * 同时加载 movies.csv 和 users.csv。
+     * 多线程模式下两个文件的所有分块都提交到同一个 ForkJoinPool 中并行解析
+     */
+    public LoadedData loadAll() throws IOException {
+        return loadAll(true, true);
+    }
+
+    /**
+     * 只加载电影，同时返回跳过的行数
+     */
+    public LoadedData loadMovieData() throws IOException {
+        return loadAll(true, false);
+    }
+
+    private LoadedData loadAll(boolean includeMovies, boolean includeUsers) throws IOException {
+        HashMap<String, Movie> snapshotMovies = null;
+        MappedCsvReader movieReader = null;
+        if (includeMovies) {
+            snapshotMovies = readCatalogSnapshot();
+            if (snapshotMovies == null) {
+                movieReader = MappedCsvReader.open(moviesFilePath);
+                movieReader.nextRecord(); // skip the top
+            }
+        }
+        synchronized (snapshotLock) {
+            MappedCsvReader[] userReaders = new MappedCsvReader[0];
+            LazyUserMap lazyUserMap = null;
+            if (includeUsers && lazyUsers && userShards <= 1) {
+                lazyUserMap = new LazyUserMap(MappedCsvReader.read(usersFilePath), userIdleMillis);
+            } else if (includeUsers) {
+                userReaders = openUserFiles();
+            }
+            int threads = loadThreads;
+            if (threads <= 1 && userReaders.length > 1) {
+                // 分片之间互不依赖，即使没有指定线程数也并行加载
+                threads = Math.min(userReaders.length, Runtime.getRuntime().availableProcessors());
+            }
+            LoadedData data;
+            if (threads <= 1) {
+                HashMap<String, Movie> movies = new HashMap<>();
+                int skippedMovies = 0;
+                if (movieReader != null) {
+                    skippedMovies = parseRows(MOVIE_ROWS, movieReader, movies);
                 }
-                String[] parts = splitCsvLine(line);
-                if (parts.length < 5) {
-                    continue;
+                HashMap<String, User> users = new HashMap<>();
+                int skippedUsers = 0;
+                for (MappedCsvReader userReader : userReaders) {
+                    skippedUsers += parseRows(USER_ROWS, userReader, users);
                 }
-                    String id = parts[0].trim();
-                    String title = parts[1].trim();
-                    String genre = parts[2].trim();
-                int year = parseInt(parts[3], 0);
-                double rating = parseDouble(parts[4], 0.0);
-                Movie movie = MovieFactory.createMovie(id, title, genre, year, rating);
-                result.put(id, movie);
+                data = new LoadedData(movies, users, skippedMovies, skippedUsers);
+            } else {
+                data = loadInParallel(movieReader, userReaders, threads);
+            }
+            if (lazyUserMap != null) {
+                data = new LoadedData(data.getMovies(), lazyUserMap,
+                        data.getSkippedMovieRows(), lazyUserMap.getSkippedRows());
+            }
+            if (includeUsers) {
+                HashSet<String> replayed = journal.replayInto(data.getUsers());
+                // 日志中的修改还没有写进分片文件
+                markDirty(replayed);
+            }
+            if (lazyUserMap != null) {
+                lazyUserMap.pinLoaded();
+                activeLazyUsers = lazyUserMap;
+            }
+            if (snapshotMovies != null) {
+                return new LoadedData(snapshotMovies, data.getUsers(),
+                        catalogSnapshot.getSkippedRows(), data.getSkippedUserRows());
             }
+            if (includeMovies) {
+                writeCatalogSnapshot(data);
+            }
+            return data;
         }
+    }
+
+    /**
+     * 打开 users.csv 或全部分片文件，读取器已跳过表头
+     */
+    private MappedCsvReader[] openUserFiles() throws IOException {
+        if (userShards <= 1) {
+            MappedCsvReader reader = MappedCsvReader.open(usersFilePath);
+            reader.nextRecord(); // header
+            return new MappedCsvReader[] { reader };
+        }
+        MappedCsvReader[] readers = new MappedCsvReader[userShards];
+        for (int shard = 0; shard < userShards; shard++) {
+            File file = new File(shardPath(shard));
+            if (!file.exists()) {
+                throw new IOException("User shard " + file.getPath()
+                        + " not found; run with --migrate-user-shards=" + userShards + " first");
+            }
+            readers[shard] = MappedCsvReader.open(file.getPath());
+            readers[shard].nextRecord(); // header
+        }
+        return readers;
+    }
+
+    private LoadedData loadInParallel(MappedCsvReader movieReader, MappedCsvReader[] userReaders, int threads)
+            throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            ParallelCsvLoader<Movie> movieLoader = null;
+            ForkJoinTask<HashMap<String, Movie>> movieTask = null;
+            if (movieReader != null) {
+                movieLoader = ParallelCsvLoader.of(movieReader, MOVIE_ROWS, threads);
+                movieTask = movieLoader.submit(pool);
+            }
+            // 每个分片是一个独立的加载器，线程数多于分片数时分片内部再切块
+            int chunksPerFile = Math.max(1, threads / Math.max(1, userReaders.length));
+            List<ParallelCsvLoader<User>> userLoaders = new ArrayList<>();
+            List<ForkJoinTask<HashMap<String, User>>> userTasks = new ArrayList<>();
+            for (MappedCsvReader userReader : userReaders) {
+                ParallelCsvLoader<User> userLoader = ParallelCsvLoader.of(userReader, USER_ROWS, chunksPerFile);
+                userLoaders.add(userLoader);
+                userTasks.add(userLoader.submit(pool));
+            }
+            HashMap<String, Movie> movies = new HashMap<>();
+            int skippedMovies = 0;
+            if (movieTask != null) {
+                movies = movieTask.get();
+                skippedMovies = movieLoader.getSkippedRows();
+            }
+            HashMap<String, User> users = new HashMap<>();
+            int skippedUsers = 0;
+            for (int i = 0; i < userTasks.size(); i++) {
+                if (users.isEmpty()) {
+                    users = userTasks.get(i).get();
+                } else {
+                    users.putAll(userTasks.get(i).get());
+                }
+                skippedUsers += userLoaders.get(i).getSkippedRows();
+            }
+            return new LoadedData(movies, users, skippedMovies, skippedUsers);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Loading interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw new IOException("Unable to load data files: " + e.getCause(), e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private HashMap<String, Movie> readCatalogSnapshot() {
+        try {
+            return catalogSnapshot.read();
+        } catch (IOException e) {
+            // 快照只是加速手段，读取失败时回退到CSV
+            return null;
+        }
+    }
+
+    private void writeCatalogSnapshot(LoadedData data) {
+        try {
+            catalogSnapshot.write(data.getMovies(), data.getSkippedMovieRows());
+        } catch (IOException e) {
+            System.err.println("Warning: unable to write catalog snapshot: " + e.getMessage());
+        }
+    }
+
+    private HashMap<String, User> readUserSnapshot() throws IOException {
+        HashMap<String, User> result = new HashMap<>();
+        MappedCsvReader reader = MappedCsvReader.open(usersFilePath);
+        reader.nextRecord(); // header
+        parseRows(USER_ROWS, reader, result);
         return result;
     }
 
-    public HashMap<String, User> loadUsers() throws IOException {
+    private HashMap<String, User> readShards(HashSet<Integer> shards) throws IOException {
         HashMap<String, User> result = new HashMap<>();
-        try (BufferedReader reader = new BufferedReader(new FileReader(usersFilePath))) {
-            String line = reader.readLine(); // header
-            while ((line = reader.readLine()) != null) {
-                if (line.trim().isEmpty()) {
+        for (Integer shard : shards) {
+            File file = new File(shardPath(shard));
+            if (!file.exists()) {
+                continue;
+            }
+            MappedCsvReader reader = MappedCsvReader.open(file.getPath());
+            reader.nextRecord(); // header
+            parseRows(USER_ROWS, reader, result);
+        }
+        return result;
+    }
+
+    /**
+     * 顺序解析读取器中剩下的行；流式读取（压缩文件）时的读取错误作为 IOException 抛出
+     */
+    private static <T> int parseRows(ParallelCsvLoader.RowParser<T> parser, MappedCsvReader reader,
+                                     HashMap<String, T> into) throws IOException {
+        try {
+            return parser.parseRows(reader, into);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static final ParallelCsvLoader.RowParser<Movie> MOVIE_ROWS = new ParallelCsvLoader.RowParser<Movie>() {
+        @Override
+        public int parseRows(MappedCsvReader reader, HashMap<String, Movie> into) {
+            int skipped = 0;
+            while (reader.nextRecord()) {
+                if (reader.isBlankLine()) {
                     continue;
                 }
-                String[] parts = splitCsvLine(line);
-                if (parts.length < 4) {
+                if (reader.fieldCount() < 5) {
+                    skipped++;
                     continue;
                 }
-                String username = parts[0].trim();
-                String passwordValue = parts[1].trim();
-                String role;
-                if (parts.length >= 5) {
-                    role = UserRole.fromString(parts[2]);
-                } else {
-                    role = UserRole.BASIC;
+                String id = reader.getString(0);
+                String title = reader.getString(1);
+                String genre = reader.getString(2);
+                int year = reader.getInt(3, 0);
+                double rating = reader.getDouble(4, 0.0);
+                Movie movie = MovieFactory.createMovie(id, title, genre, year, rating);
+                into.put(id, movie);
+            }
+            return skipped;
+        }
+    };
+
+    private static final ParallelCsvLoader.RowParser<User> USER_ROWS = new ParallelCsvLoader.RowParser<User>() {
+        @Override
+        public int parseRows(MappedCsvReader reader, HashMap<String, User> into) {
+            int skipped = 0;
+            while (reader.nextRecord()) {
+                if (reader.isBlankLine()) {
+                    continue;
                 }
-                int watchlistIndex;
-                if (parts.length >= 5) {
-                    watchlistIndex = 3;
-                } else {
-                    watchlistIndex = 2;
+                User user = parseUserRow(reader);
+                if (user == null) {
+                    skipped++;
+                    continue;
                 }
-                int historyIndex;
-                if (parts.length >= 5) {
-                    historyIndex = 4;
-                } else {
-                    historyIndex = 3;
+                into.put(user.getUsername(), user);
+            }
+            return skipped;
+        }
+    };
+
+    /**
+     * 观看历史所在的字段：有角色列（5个字段）时为第5列，旧格式（4个字段）为第4列
+     */
+    static int historyFieldIndex(int fieldCount) {
+        if (fieldCount >= 5) {
+            return 4;
+        }
+        return 3;
+    }
+
+    /**
+     * 解析读取器当前所在的一行用户数据
+     * @return 字段数不足时返回null
+     */
+    static User parseUserRow(MappedCsvReader reader) {
+        int fieldCount = reader.fieldCount();
+        if (fieldCount < 4) {
+            return null;
+        }
+        String username = reader.getString(0);
+        String passwordValue = reader.getString(1);
+        String role;
+        if (fieldCount >= 5) {
+            role = UserRole.fromString(reader.getString(2));
+        } else {
+            role = UserRole.BASIC;
+        }
+        int watchlistIndex;
+        if (fieldCount >= 5) {
+            watchlistIndex = 3;
+        } else {
+            watchlistIndex = 2;
+        }
+        Watchlist watchlist = new Watchlist(reader.getString(watchlistIndex));
+        History history = new History(reader.getString(historyFieldIndex(fieldCount)));
+
+        return UserFactory.createUser(username, passwordValue, role, watchlist, history);
+    }
+
+    /**
+     * 写出完整快照，之后日志中的记录都已包含在快照里。
+     * 分片模式下只重写加载以来有用户被修改过的分片
+     */
+    @Override
+    public void saveUsers(HashMap<String, User> users) throws IOException {
+        synchronized (snapshotLock) {
+            if (userShards > 1) {
+                HashSet<Integer> shards = takeDirtyShards();
+                try {
+                    writeShards(users, shards);
+                } catch (IOException e) {
+                    // 写入失败的分片保持为脏，下次保存时重试
+                    synchronized (dirtyShards) {
+                        dirtyShards.addAll(shards);
+                    }
+                    throw e;
                 }
+            } else {
+                writeUserSnapshot(users);
+            }
+            journal.clear();
+        }
+    }
 
-                Watchlist watchlist = new Watchlist(getField(parts, watchlistIndex));
-                History history = new History(getField(parts, historyIndex));
+    /**
+     * 一次性迁移：把 users.csv（连同日志）拆分成N个分片文件。
+     * 原文件改名为 ".unsharded" 保留备份，避免之后不带分片参数启动时读到过期数据
+     * @param shardCount 分片数量，之后启动时需要使用相同的分片数
+     * @return 迁移的用户数量
+     */
+    public int migrateToShards(int shardCount) throws IOException {
+        synchronized (snapshotLock) {
+            HashMap<String, User> users = readUserSnapshot();
+            journal.replayInto(users);
+            setUserShards(shardCount);
+            HashSet<Integer> allShards = new HashSet<>();
+            for (int shard = 0; shard < userShards; shard++) {
+                allShards.add(shard);
+            }
+            writeShards(users, allShards);
+            journal.clear();
+            File original = new File(usersFilePath);
+            replaceAtomically(original, new File(usersFilePath + ".unsharded"));
+            return users.size();
+        }
+    }
+
+    /**
+     * 只追加一条变更记录，而不是重写整个 users.csv
+     * @param operation UserJournal 中定义的操作类型
+     * @param user 被修改的用户
+     * @param values 操作参数，例如电影ID和观看日期
+     */
+    public void recordChange(String operation, User user, String... values) throws IOException {
+        List<String[]> records = new ArrayList<>();
+        records.add(prepareChange(operation, user, values));
+        appendChanges(records);
+    }
 
-                User user = UserFactory.createUser(username, passwordValue, role, watchlist, history);
-                result.put(username, user);
+    /**
+     * 在修改发生的线程上生成日志记录（字段都是不可变的字符串），
+     * 之后可以交给后台线程通过 appendChanges 写入
+     */
+    @Override
+    public String[] prepareChange(String operation, User user, String... values) {
+        if (activeLazyUsers != null) {
+            activeLazyUsers.pin(user);
+        }
+        if (userShards > 1) {
+            synchronized (dirtyShards) {
+                dirtyShards.add(shardOf(user.getUsername(), userShards));
             }
         }
-        return result;
+        return UserJournal.record(operation, user.getUsername(), values);
     }
 
-    public void saveUsers(HashMap<String, User> users) throws IOException {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(usersFilePath))) {
+    /**
+     * 把一批记录写入日志，只 fsync 一次；日志超过阈值时启动后台压缩
+     */
+    @Override
+    public void appendChanges(List<String[]> records) throws IOException {
+        if (records.isEmpty()) {
+            return;
+        }
+        long journalSize = journal.appendAll(records);
+        if (journalSize >= journalThresholdBytes) {
+            startCompaction();
+        }
+    }
+
+    /**
+     * 退出时写出完整快照，日志随之清空
+     */
+    @Override
+    public void close(HashMap<String, User> users) throws IOException {
+        saveUsers(users);
+    }
+
+    public void recordNewUser(User user) throws IOException {
+        recordChange(UserJournal.USER_CREATE, user, user.getPasswordHash(), user.getRole());
+    }
+
+    public void recordPasswordChange(User user) throws IOException {
+        recordChange(UserJournal.PASSWORD, user, user.getPasswordHash());
+    }
+
+    private void startCompaction() throws IOException {
+        if (!journal.rotate()) {
+            return;
+        }
+        Thread compactor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    compactJournal();
+                } catch (IOException e) {
+                    // 压缩失败时日志仍保留在磁盘上，下次加载会继续重放
+                    System.err.println("Warning: journal compaction failed: " + e.getMessage());
+                }
+            }
+        }, "users-journal-compactor");
+        compactor.setDaemon(true);
+        compactor.start();
+    }
+
+    /**
+     * 从磁盘上的快照和已轮换的日志生成新快照，不读取内存中正在被修改的用户对象
+     */
+    private void compactJournal() throws IOException {
+        synchronized (snapshotLock) {
+            if (!journal.hasPendingCompaction()) {
+                return;
+            }
+            if (userShards > 1) {
+                // 只有日志涉及的分片需要读取和重写
+                List<String[]> records = journal.readCompacting();
+                HashSet<Integer> shards = new HashSet<>();
+                for (String[] record : records) {
+                    shards.add(shardOf(record[1].trim(), userShards));
+                }
+                HashMap<String, User> touched = readShards(shards);
+                for (String[] record : records) {
+                    UserJournal.apply(record, touched);
+                }
+                writeShards(touched, shards);
+            } else {
+                HashMap<String, User> snapshot = readUserSnapshot();
+                journal.replayCompactingInto(snapshot);
+                writeUserSnapshot(snapshot);
+            }
+            journal.finishCompaction();
+        }
+    }
+
+    /**
+     * 先写临时文件并 fsync，再原子改名替换。
+     * 中途崩溃时旧的 users.csv 保持完整；按需加载的用户仍映射着旧文件，也不能原地截断
+     */
+    private void writeUserSnapshot(HashMap<String, User> users) throws IOException {
+        if (users instanceof LazyUserMap) {
+            writeUserFile(new File(usersFilePath), null, (LazyUserMap) users);
+        } else {
+            writeUserFile(new File(usersFilePath), users.values(), null);
+        }
+    }
+
+    /**
+     * 重写指定的分片；不存在的分片文件也会被写出，保证加载时所有分片都在
+     */
+    private void writeShards(HashMap<String, User> users, HashSet<Integer> shards) throws IOException {
+        for (int shard = 0; shard < userShards; shard++) {
+            if (!new File(shardPath(shard)).exists()) {
+                shards.add(shard);
+            }
+        }
+        if (shards.isEmpty()) {
+            return;
+        }
+        HashMap<Integer, List<User>> rows = new HashMap<>();
+        for (Integer shard : shards) {
+            rows.put(shard, new ArrayList<User>());
+        }
+        for (User user : users.values()) {
+            List<User> shardRows = rows.get(shardOf(user.getUsername(), userShards));
+            if (shardRows != null) {
+                shardRows.add(user);
+            }
+        }
+        for (Map.Entry<Integer, List<User>> entry : rows.entrySet()) {
+            writeUserFile(new File(shardPath(entry.getKey())), entry.getValue(), null);
+        }
+    }
+
+    private void writeUserFile(File target, Iterable<User> users, LazyUserMap lazyUsers) throws IOException {
+        File temp = new File(target.getPath() + ".tmp");
+        try (FileOutputStream output = new FileOutputStream(temp)) {
+            OutputStream encoded = CsvCompression.compress(output, outputCompression);
+            BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(encoded, StandardCharsets.UTF_8));
             writer.write("username,password,role,watchlist,history");
             writer.newLine();
-            for (User user : users.values()) {
-                List<String> row = new ArrayList<>();
-                row.add(user.getUsername());
-                row.add(user.getPasswordHash());
-                row.add(user.getRole());
-                row.add(user.getWatchlist().toString());
-                row.add(user.getHistory().toString());
-                writer.write(String.join(",", escapeCsv(row)));
-                writer.newLine();
+            if (lazyUsers != null) {
+                lazyUsers.writeRows(writer);
+            } else {
+                for (User user : users) {
+                    writer.write(formatUserRow(user));
+                    writer.newLine();
+                }
             }
+            writer.flush();
+            CsvCompression.finish(encoded);
+            output.getFD().sync();
         }
+        replaceAtomically(temp, target);
     }
 
-    private static String[] splitCsvLine(String line) {
+    private void markDirty(HashSet<String> usernames) {
+        if (userShards <= 1) {
+            return;
+        }
+        synchronized (dirtyShards) {
+            for (String username : usernames) {
+                dirtyShards.add(shardOf(username, userShards));
+            }
+        }
+    }
+
+    private HashSet<Integer> takeDirtyShards() {
+        synchronized (dirtyShards) {
+            HashSet<Integer> shards = new HashSet<>(dirtyShards);
+            dirtyShards.clear();
+            return shards;
+        }
+    }
+
+    private static void replaceAtomically(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    static String formatUserRow(User user) {
+        List<String> row = new ArrayList<>();
+        row.add(user.getUsername());
+        row.add(user.getPasswordHash());
+        row.add(user.getRole());
+        row.add(user.getWatchlist().toString());
+        row.add(user.getHistory().toString());
+        return String.join(",", escapeCsv(row));
+    }
+
+    static String[] splitCsvLine(String line) {
         List<String> tokens = new ArrayList<>();
-        String current = "";
+        StringBuilder current = new StringBuilder();
         boolean inQuotes = false;
         for (int i = 0; i < line.length(); i++) {
             char c = line.charAt(i);
             if (c == '\"') {
                 inQuotes = !inQuotes;
             } else if (c == ',' && !inQuotes) {
-                tokens.add(current);
-                current = "";
+                tokens.add(current.toString());
+                current.setLength(0);
             } else {
-                current = current + c;
+                current.append(c);
             }
         }
-        tokens.add(current);
+        tokens.add(current.toString());
         return tokens.toArray(new String[0]);
     }
 
-    private static List<String> escapeCsv(List<String> values) {
+    static List<String> escapeCsv(List<String> values) {
         List<String> escaped = new ArrayList<>();
         for (String value : values) {
             if (value == null) {
@@ -136,27 +689,4 @@ public class FileManager {
         }
         return escaped;
     }
-
-    private static String getField(String[] parts, int index) {
-        if (index >= parts.length) {
-            return "";
-        }
-        return parts[index];
-    }
-
-    private static int parseInt(String value, int defaultValue) {
-        try {
-            return Integer.parseInt(value.trim());
-        } catch (NumberFormatException e) {
-            return defaultValue;
-        }
-    }
-
-    private static double parseDouble(String value, double defaultValue) {
-        try {
-            return Double.parseDouble(value.trim());
-        } catch (NumberFormatException e) {
-            return defaultValue;
-        }
-    }
 }
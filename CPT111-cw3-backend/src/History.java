@@ -1,54 +1,90 @@
+import java.time.DateTimeException;
+import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
+import java.util.Map;
 
 /**
  * History类管理用户的观看历史
- * 存储电影ID和观看日期
+ * 每条记录占一个槽位，电影ID的字典编号（StringDictionary.MOVIE_IDS）和观看日期保存在平行的 int 数组中，
+ * 对外仍使用字符串ID。电影编号 → 槽位的索引使查找、取日期和更新日期都是 O(1)。
+ * 日期在加载时解析一次，保存为纪元日（1970-01-01 起的天数），比较日期只需整数运算；
+ * 另外维护按日期排序的槽位数组，用于"某段时间内看过的电影"和"最近看过的N部电影"查询。
+ * 关联电影目录后同时维护口味统计（TasteProfile），新增记录时增量更新。
+ * 目录和统计作为一个整体（ProfileState）通过 volatile 字段发布，推荐引擎在任意线程中无锁读取；
+ * 重建或更新统计时先在局部变量中建好新的统计，再一次性替换，读者不会看到建了一半的统计。
+ * 看过的电影编号另外保存在 BitSet 中，可以与其他集合做批量位运算
  */
 public class History {
-    private ArrayList<HistoryEntry> entries;
-
     /**
-     * 内部类，表示一条观看历史记录
+     * 无法解析的日期对应的纪元日
      */
-    private class HistoryEntry {
-        private String movieId;
-        private String date;
+    public static final int UNKNOWN_DAY = Integer.MIN_VALUE;
 
-        public HistoryEntry(String movieId, String date) {
-            this.movieId = movieId;
-            this.date = date;
-        }
+    private int[] handles = new int[4];
+    private int[] days = new int[4];
+    private int size;
+    // 槽位按日期（相同日期按槽位）排序，无法解析的日期排在最前面
+    private int[] byDate = new int[4];
+    private final HashMap<Integer, Integer> slots = new HashMap<>();
+    // 只有无法解析的日期才保留原始字符串（槽位 → 日期），保存时原样写回
+    private final HashMap<Integer, String> rawDates = new HashMap<>();
+    private WatchListener listener;
+    private int version;
+    private final BitSet watched = new BitSet();
+    private volatile ProfileState profileState = new ProfileState(null, new TasteProfile());
 
-        public String getMovieId() {
-            return movieId;
-        }
+    /**
+     * 关联的目录和基于它算出的口味统计，发布后都不再修改
+     */
+    private static final class ProfileState {
+        private final Map<String, Movie> catalog;
+        private final TasteProfile profile;
 
-        public String getDate() {
-            return date;
+        ProfileState(Map<String, Movie> catalog, TasteProfile profile) {
+            this.catalog = catalog;
+            this.profile = profile;
         }
     }
 
+    /**
+     * 观看记录监听器，例如 CoWatchModel 用它增量更新共同观看次数
+     */
+    public interface WatchListener {
+        /**
+         * 新增了一条观看记录（只更新日期时不会调用）
+         * @param history 已包含新记录的观看历史
+         * @param movieHandle 新电影的字典编号
+         */
+        void movieWatched(History history, int movieHandle);
+    }
+
     /**
      * 构造函数
      */
     public History() {
-        this.entries = new ArrayList<>();
     }
 
     /**
      * 从字符串初始化观看历史（从CSV文件加载时使用）
+     * 同一部电影出现多次时与 addMovie 一样只更新日期
      * @param historyString 格式：M001@2025-07-12;M011@2025-08-10
      */
     public History(String historyString) {
-        this.entries = new ArrayList<>();
         if (historyString != null && !historyString.trim().isEmpty()) {
             String[] parts = historyString.split(";");
             for (String part : parts) {
                 if (part != null && !part.trim().isEmpty()) {
                     String[] entry = part.split("@");
-                    if (entry.length == 2) {
-                        entries.add(new HistoryEntry(entry[0].trim(), entry[1].trim()));
+                    if (entry.length == 2 && !entry[0].trim().isEmpty()) {
+                        int handle = StringDictionary.MOVIE_IDS.encode(entry[0].trim());
+                        Integer slot = slots.get(handle);
+                        if (slot == null) {
+                            append(handle, entry[1].trim());
+                        } else {
+                            setDate(slot, entry[1].trim());
+                        }
                     }
                 }
             }
@@ -68,17 +104,58 @@ public class History {
         if (date == null || date.trim().isEmpty()) {
             return false;
         }
-        // 检查是否已存在，如果存在则更新日期
-        for (HistoryEntry entry : entries) {
-            if (entry.getMovieId().equals(movieId.trim())) {
-                entry.date = date.trim();
+        int handle;
+        // 与 attachCatalog 的重建互斥，重建时不会漏掉正在添加的记录
+        synchronized (this) {
+            // 检查是否已存在，如果存在则更新日期
+            Integer existing = slotOf(movieId.trim());
+            if (existing != null) {
+                int previousDay = days[existing];
+                setDate(existing, date.trim());
+                ProfileState state = profileState;
+                if (state.catalog != null) {
+                    TasteProfile updated = new TasteProfile(state.profile);
+                    updated.rewatch(state.catalog.get(StringDictionary.MOVIE_IDS.decode(handles[existing])),
+                            previousDay, days[existing]);
+                    profileState = new ProfileState(state.catalog, updated);
+                }
+                version++;
                 return true;
             }
+            handle = StringDictionary.MOVIE_IDS.encode(movieId.trim());
+            int slot = append(handle, date.trim());
+            version++;
+            ProfileState state = profileState;
+            if (state.catalog != null) {
+                TasteProfile updated = new TasteProfile(state.profile);
+                updated.add(state.catalog.get(StringDictionary.MOVIE_IDS.decode(handle)), days[slot]);
+                profileState = new ProfileState(state.catalog, updated);
+            }
+        }
+        if (listener != null) {
+            listener.movieWatched(this, handle);
         }
-        entries.add(new HistoryEntry(movieId.trim(), date.trim()));
         return true;
     }
 
+    /**
+     * 修改次数，每次添加记录或更新日期时加一，用于判断缓存的推荐是否过期
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    public WatchListener getWatchListener() {
+        return listener;
+    }
+
+    /**
+     * 设置监听器，每个观看历史最多一个
+     */
+    public void setWatchListener(WatchListener listener) {
+        this.listener = listener;
+    }
+
     /**
      * 检查电影是否在观看历史中
      * @param movieId 电影ID
@@ -88,13 +165,28 @@ public class History {
         if (movieId == null) {
             return false;
         }
-        String target = movieId.trim();
-        for (HistoryEntry entry : entries) {
-            if (entry.getMovieId().equals(target)) {
-                return true;
-            }
-        }
-        return false;
+        return containsHandle(StringDictionary.MOVIE_IDS.find(movieId.trim()));
+    }
+
+    /**
+     * 按字典编号检查电影是否在观看历史中
+     */
+    public boolean containsHandle(int handle) {
+        return handle >= 0 && watched.get(handle);
+    }
+
+    /**
+     * 看过的电影的编号集合（副本），可以与其他集合做批量与、或运算
+     */
+    public BitSet getMovieBits() {
+        return (BitSet) watched.clone();
+    }
+
+    /**
+     * 把看过的电影加入给定集合
+     */
+    void addTo(BitSet target) {
+        target.or(watched);
     }
 
     /**
@@ -102,9 +194,9 @@ public class History {
      * @return 电影ID列表
      */
     public ArrayList<String> getMovieIds() {
-        ArrayList<String> ids = new ArrayList<>();
-        for (HistoryEntry entry : entries) {
-            ids.add(entry.getMovieId());
+        ArrayList<String> ids = new ArrayList<>(size);
+        for (int slot = 0; slot < size; slot++) {
+            ids.add(StringDictionary.MOVIE_IDS.decode(handles[slot]));
         }
         return ids;
     }
@@ -115,12 +207,116 @@ public class History {
      * @return 观看日期，如果不存在返回null
      */
     public String getDate(String movieId) {
-        for (HistoryEntry entry : entries) {
-            if (entry.getMovieId().equals(movieId)) {
-                return entry.getDate();
+        Integer slot = slotOf(movieId);
+        if (slot == null) {
+            return null;
+        }
+        return formatDate(slot);
+    }
+
+    /**
+     * 获取电影观看日期对应的纪元日
+     * @return 不存在或日期无法解析时返回 UNKNOWN_DAY
+     */
+    public int getEpochDay(String movieId) {
+        Integer slot = slotOf(movieId);
+        if (slot == null) {
+            return UNKNOWN_DAY;
+        }
+        return days[slot];
+    }
+
+    /**
+     * 在某段时间内看过的电影，按观看日期从早到晚
+     * @param fromDay 起始纪元日（包含）
+     * @param toDay 结束纪元日（包含）
+     * @return 电影ID列表；日期无法解析的记录不会出现在结果中
+     */
+    public ArrayList<String> getMoviesWatchedBetween(int fromDay, int toDay) {
+        ArrayList<String> ids = new ArrayList<>();
+        if (fromDay > toDay) {
+            return ids;
+        }
+        int from = lowerBound(Math.max(fromDay, UNKNOWN_DAY + 1));
+        for (int i = from; i < size && days[byDate[i]] <= toDay; i++) {
+            ids.add(StringDictionary.MOVIE_IDS.decode(handles[byDate[i]]));
+        }
+        return ids;
+    }
+
+    /**
+     * 在某段时间内看过的电影
+     * @param fromDate 起始日期（yyyy-MM-dd，包含）
+     * @param toDate 结束日期（yyyy-MM-dd，包含）
+     * @return 日期格式不正确时返回空列表
+     */
+    public ArrayList<String> getMoviesWatchedBetween(String fromDate, String toDate) {
+        int fromDay = parseEpochDay(fromDate);
+        int toDay = parseEpochDay(toDate);
+        if (fromDay == UNKNOWN_DAY || toDay == UNKNOWN_DAY) {
+            return new ArrayList<>();
+        }
+        return getMoviesWatchedBetween(fromDay, toDay);
+    }
+
+    /**
+     * 最近看过的电影，按观看日期从晚到早
+     * @param count 最多返回的数量
+     * @return 电影ID列表；日期无法解析的记录不会出现在结果中
+     */
+    public ArrayList<String> getLastWatched(int count) {
+        ArrayList<String> ids = new ArrayList<>();
+        for (int i = size - 1; i >= 0 && ids.size() < count; i--) {
+            int slot = byDate[i];
+            if (days[slot] == UNKNOWN_DAY) {
+                break;
+            }
+            ids.add(StringDictionary.MOVIE_IDS.decode(handles[slot]));
+        }
+        return ids;
+    }
+
+    /**
+     * 把 yyyy-MM-dd 格式的日期解析为纪元日，只在加载和添加记录时调用一次
+     * @return 格式不符或日期不存在时返回 UNKNOWN_DAY
+     */
+    public static int parseEpochDay(String date) {
+        if (date == null || date.length() != 10 || date.charAt(4) != '-' || date.charAt(7) != '-') {
+            return UNKNOWN_DAY;
+        }
+        int year = digits(date, 0, 4);
+        int month = digits(date, 5, 7);
+        int day = digits(date, 8, 10);
+        if (year < 0 || month < 0 || day < 0) {
+            return UNKNOWN_DAY;
+        }
+        try {
+            return (int) LocalDate.of(year, month, day).toEpochDay();
+        } catch (DateTimeException e) {
+            return UNKNOWN_DAY;
+        }
+    }
+
+    private static int digits(String text, int from, int to) {
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
             }
+            value = value * 10 + (c - '0');
         }
-        return null;
+        return value;
+    }
+
+    /**
+     * 获取观看历史中所有电影的字典编号
+     * @return 按观看记录顺序排列的编号
+     */
+    public int[] getMovieHandles() {
+        int[] copy = new int[size];
+        System.arraycopy(handles, 0, copy, 0, size);
+        return copy;
     }
 
     /**
@@ -128,7 +324,7 @@ public class History {
      * @return 观看历史中的电影数量
      */
     public int size() {
-        return entries.size();
+        return size;
     }
 
     /**
@@ -136,7 +332,56 @@ public class History {
      * @return 如果为空返回true，否则返回false
      */
     public boolean isEmpty() {
-        return entries.isEmpty();
+        return size == 0;
+    }
+
+    /**
+     * 关联电影目录并重建一次口味统计；再次关联同一个目录时不做任何事
+     * @param movies 电影数据，关联后不能再修改；目录变化时传入新的对象（如新的 MovieCatalog 快照）
+     */
+    public void attachCatalog(Map<String, Movie> movies) {
+        attachCatalog(movies, profileState.profile.getHalfLifeDays());
+    }
+
+    /**
+     * 关联电影目录并指定近期偏好的半衰期；目录和半衰期都没有变化时不做任何事（无锁）。
+     * 需要重建时在局部变量中建好新的统计，与目录一起一次性发布
+     * @param halfLifeDays 观看记录的权重每经过这么多天减半
+     */
+    public void attachCatalog(Map<String, Movie> movies, double halfLifeDays) {
+        if (isAttached(profileState, movies, halfLifeDays)) {
+            return;
+        }
+        synchronized (this) {
+            ProfileState state = profileState;
+            if (isAttached(state, movies, halfLifeDays)) {
+                return;
+            }
+            if (halfLifeDays <= 0) {
+                halfLifeDays = state.profile.getHalfLifeDays();
+            }
+            TasteProfile rebuilt = new TasteProfile(halfLifeDays);
+            if (movies != null) {
+                for (int slot = 0; slot < size; slot++) {
+                    rebuilt.add(movies.get(StringDictionary.MOVIE_IDS.decode(handles[slot])), days[slot]);
+                }
+            }
+            profileState = new ProfileState(movies, rebuilt);
+        }
+    }
+
+    private static boolean isAttached(ProfileState state, Map<String, Movie> movies, double halfLifeDays) {
+        if (movies != state.catalog) {
+            return false;
+        }
+        return halfLifeDays <= 0 || halfLifeDays == state.profile.getHalfLifeDays();
+    }
+
+    /**
+     * 口味统计，未关联目录时为空。返回的统计不会再变化，新增记录后需要重新获取
+     */
+    public TasteProfile getProfile() {
+        return profileState.profile;
     }
 
     /**
@@ -145,22 +390,8 @@ public class History {
      * @return 平均年份，若无法计算则返回0
      */
     public double getAverageWatchYear(HashMap<String, Movie> movies) {
-        if (entries.isEmpty()) {
-            return 0;
-        }
-        double total = 0;
-        int count = 0;
-        for (HistoryEntry entry : entries) {
-            Movie movie = movies.get(entry.getMovieId());
-            if (movie != null) {
-                total += movie.getYear();
-                count++;
-            }
-        }
-        if (count == 0) {
-            return 0;
-        }
-        return total / count;
+        attachCatalog(movies);
+        return getProfile().getAverageYear();
     }
 
     /**
@@ -169,15 +400,8 @@ public class History {
      * @return HashMap，键为类型，值为观看次数
      */
     public HashMap<String, Integer> getGenreCounts(HashMap<String, Movie> movies) {
-        HashMap<String, Integer> genreCounts = new HashMap<>();
-        for (HistoryEntry entry : entries) {
-            Movie movie = movies.get(entry.getMovieId());
-            if (movie != null) {
-                String genre = movie.getGenre();
-                genreCounts.put(genre, genreCounts.getOrDefault(genre, 0) + 1);
-            }
-        }
-        return genreCounts;
+        attachCatalog(movies);
+        return getProfile().getGenreCounts();
     }
 
     /**
@@ -186,18 +410,121 @@ public class History {
      */
     @Override
     public String toString() {
-        if (entries.isEmpty()) {
-            return "";
-        }
-        String result = "";
-        for (int i = 0; i < entries.size(); i++) {
-            HistoryEntry entry = entries.get(i);
-            result = result + entry.getMovieId() + "@" + entry.getDate();
-            if (i < entries.size() - 1) {
-                result = result + ";";
+        StringBuilder result = new StringBuilder();
+        for (int slot = 0; slot < size; slot++) {
+            if (slot > 0) {
+                result.append(';');
             }
+            result.append(StringDictionary.MOVIE_IDS.decode(handles[slot])).append('@').append(formatDate(slot));
         }
-        return result;
+        return result.toString();
+    }
+
+    /**
+     * 按编号查找槽位，不需要比较字符串
+     */
+    private Integer slotOf(String movieId) {
+        int handle = StringDictionary.MOVIE_IDS.find(movieId);
+        if (!containsHandle(handle)) {
+            return null;
+        }
+        return slots.get(handle);
+    }
+
+    private String formatDate(int slot) {
+        if (days[slot] == UNKNOWN_DAY) {
+            return rawDates.get(slot);
+        }
+        return LocalDate.ofEpochDay(days[slot]).toString();
     }
-}
 
+    private int append(int handle, String date) {
+        if (size == handles.length) {
+            int capacity = size * 2;
+            int[] grownHandles = new int[capacity];
+            int[] grownDays = new int[capacity];
+            int[] grownByDate = new int[capacity];
+            System.arraycopy(handles, 0, grownHandles, 0, size);
+            System.arraycopy(days, 0, grownDays, 0, size);
+            System.arraycopy(byDate, 0, grownByDate, 0, size);
+            handles = grownHandles;
+            days = grownDays;
+            byDate = grownByDate;
+        }
+        int slot = size;
+        handles[slot] = handle;
+        days[slot] = storeDate(slot, date);
+        size++;
+        slots.put(handle, slot);
+        watched.set(handle);
+        insertByDate(slot, size - 1);
+        return slot;
+    }
+
+    private void setDate(int slot, String date) {
+        removeByDate(slot);
+        days[slot] = storeDate(slot, date);
+        insertByDate(slot, size - 1);
+    }
+
+    private int storeDate(int slot, String date) {
+        int day = parseEpochDay(date);
+        if (day == UNKNOWN_DAY) {
+            rawDates.put(slot, date);
+        } else {
+            rawDates.remove(slot);
+        }
+        return day;
+    }
+
+    /**
+     * 把槽位二分插入按日期排序的数组（前 length 个元素有序）。新记录通常是当天的，插入位置就在末尾，不需要移动
+     */
+    private void insertByDate(int slot, int length) {
+        int low = 0;
+        int high = length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compareByDate(byDate[middle], slot) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        int position = low;
+        System.arraycopy(byDate, position, byDate, position + 1, length - position);
+        byDate[position] = slot;
+    }
+
+    private void removeByDate(int slot) {
+        int position = lowerBound(days[slot]);
+        while (byDate[position] != slot) {
+            position++;
+        }
+        System.arraycopy(byDate, position + 1, byDate, position, size - position - 1);
+    }
+
+    /**
+     * 第一个日期不早于 day 的位置
+     */
+    private int lowerBound(int day) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (days[byDate[middle]] < day) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private int compareByDate(int a, int b) {
+        if (days[a] != days[b]) {
+            return Integer.compare(days[a], days[b]);
+        }
+        return Integer.compare(a, b);
+    }
+}
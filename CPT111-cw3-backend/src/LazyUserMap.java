@@ -0,0 +1,331 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * LazyUserMap类：按需加载用户的 HashMap
+ * 启动时只建立"用户名 → 行偏移"索引，第一次 get 时才解析该用户的一行。
+ * 长时间未访问且未修改过的用户可以被淘汰，下次访问时重新从映射的文件中解析。
+ * 修改过的用户（新注册、日志重放或 recordChange 过的）会被固定在内存中，
+ * 因为它们与磁盘上的快照行已经不同。
+ * 遍历类方法（values、keySet、entrySet）会加载全部用户；只需要观看历史时使用 scanMovieHandles，不加载用户。
+ * 依赖映射的文件，不支持序列化。
+ */
+@SuppressWarnings("serial")
+public class LazyUserMap extends HashMap<String, User> {
+    private static final int EVICTION_CHECK_INTERVAL = 256;
+
+    private final ByteBuffer data;
+    private final HashMap<String, Integer> rowOffsets = new HashMap<>();
+    private final HashMap<String, Long> lastAccess = new HashMap<>();
+    private final HashMap<String, Boolean> pinned = new HashMap<>();
+    private final long idleMillis;
+    private int skippedRows;
+    private int accessCount;
+    private volatile LoadListener loadListener;
+
+    /**
+     * 用户加载监听器，例如 CoWatchModel 用它跟踪按需加载（或淘汰后重新加载）的用户
+     */
+    public interface LoadListener {
+        /**
+         * 从文件中解析出了一个用户（已放入映射）
+         */
+        void userLoaded(User user);
+    }
+
+    /**
+     * 构造函数：扫描一遍文件建立偏移索引
+     * @param data 已映射（或已解压）的 users.csv
+     * @param idleMillis 用户空闲多久之后可以被淘汰
+     */
+    public LazyUserMap(ByteBuffer data, long idleMillis) {
+        this.data = data;
+        this.idleMillis = idleMillis;
+        MappedCsvReader reader = new MappedCsvReader(data);
+        reader.nextRecord(); // header
+        while (reader.nextRecord()) {
+            if (reader.isBlankLine()) {
+                continue;
+            }
+            if (reader.fieldCount() < 4) {
+                skippedRows++;
+                continue;
+            }
+            rowOffsets.put(reader.getString(0), reader.recordStart());
+        }
+    }
+
+    public int getSkippedRows() {
+        return skippedRows;
+    }
+
+    /**
+     * 当前已经在内存中的用户数量
+     */
+    public int loadedCount() {
+        return super.size();
+    }
+
+    @Override
+    public User get(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        String username = (String) key;
+        User user = super.get(username);
+        if (user == null) {
+            Integer offset = rowOffsets.get(username);
+            if (offset == null) {
+                return null;
+            }
+            user = parseRow(offset);
+            super.put(username, user);
+            notifyLoaded(user);
+        }
+        lastAccess.put(username, System.currentTimeMillis());
+        accessCount++;
+        if (accessCount % EVICTION_CHECK_INTERVAL == 0) {
+            evictIdle();
+        }
+        return user;
+    }
+
+    @Override
+    public User getOrDefault(Object key, User defaultValue) {
+        User user = get(key);
+        if (user == null) {
+            return defaultValue;
+        }
+        return user;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return super.containsKey(key) || rowOffsets.containsKey(key);
+    }
+
+    /**
+     * 放入的用户（例如新注册的用户）不再对应磁盘上的行，因此被固定
+     */
+    @Override
+    public User put(String username, User user) {
+        User previous = get(username);
+        super.put(username, user);
+        pinned.put(username, Boolean.TRUE);
+        lastAccess.put(username, System.currentTimeMillis());
+        return previous;
+    }
+
+    @Override
+    public User remove(Object key) {
+        User previous = get(key);
+        rowOffsets.remove(key);
+        pinned.remove(key);
+        lastAccess.remove(key);
+        super.remove(key);
+        return previous;
+    }
+
+    @Override
+    public int size() {
+        int count = rowOffsets.size();
+        for (String username : super.keySet()) {
+            if (!rowOffsets.containsKey(username)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public void clear() {
+        rowOffsets.clear();
+        lastAccess.clear();
+        pinned.clear();
+        super.clear();
+    }
+
+    @Override
+    public Set<String> keySet() {
+        loadAll();
+        return super.keySet();
+    }
+
+    @Override
+    public Collection<User> values() {
+        loadAll();
+        return super.values();
+    }
+
+    @Override
+    public Set<Map.Entry<String, User>> entrySet() {
+        loadAll();
+        return super.entrySet();
+    }
+
+    public void setLoadListener(LoadListener loadListener) {
+        this.loadListener = loadListener;
+    }
+
+    /**
+     * 当前已经在内存中的用户
+     */
+    public ArrayList<User> getLoadedUsers() {
+        return new ArrayList<>(super.values());
+    }
+
+    /**
+     * 每个用户看过的电影编号，不加载用户：已在内存中的用户（可能已被日志修改）取其观看历史，
+     * 其余用户只解析原始行中的观看历史字段，结果不放入映射
+     * @return 用户名 → 电影编号
+     */
+    public LinkedHashMap<String, int[]> scanMovieHandles() {
+        LinkedHashMap<String, int[]> result = new LinkedHashMap<>();
+        for (Map.Entry<String, Integer> entry : rowOffsets.entrySet()) {
+            User user = super.get(entry.getKey());
+            if (user != null) {
+                result.put(entry.getKey(), user.getHistory().getMovieHandles());
+                continue;
+            }
+            ByteBuffer row = data.duplicate();
+            row.position(entry.getValue());
+            MappedCsvReader reader = new MappedCsvReader(row);
+            reader.nextRecord();
+            History history = new History(reader.getString(FileManager.historyFieldIndex(reader.fieldCount())));
+            result.put(entry.getKey(), history.getMovieHandles());
+        }
+        for (User user : super.values()) {
+            if (!result.containsKey(user.getUsername())) {
+                result.put(user.getUsername(), user.getHistory().getMovieHandles());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 标记用户已被修改，修改后的用户不会再被淘汰
+     */
+    public void pin(User user) {
+        super.put(user.getUsername(), user);
+        pinned.put(user.getUsername(), Boolean.TRUE);
+        lastAccess.put(user.getUsername(), System.currentTimeMillis());
+    }
+
+    /**
+     * 固定当前已加载的所有用户，用于日志重放之后：此时内存中的用户都被日志修改过
+     */
+    public void pinLoaded() {
+        for (String username : super.keySet()) {
+            pinned.put(username, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * 淘汰空闲超时且未被修改的用户
+     * @return 被淘汰的用户数量
+     */
+    public int evictIdle() {
+        long now = System.currentTimeMillis();
+        ArrayList<String> idle = new ArrayList<>();
+        for (String username : super.keySet()) {
+            if (pinned.containsKey(username) || !rowOffsets.containsKey(username)) {
+                continue;
+            }
+            Long accessed = lastAccess.get(username);
+            if (accessed == null || now - accessed >= idleMillis) {
+                idle.add(username);
+            }
+        }
+        for (String username : idle) {
+            super.remove(username);
+            lastAccess.remove(username);
+        }
+        return idle.size();
+    }
+
+    /**
+     * 写出所有用户：内存中的用户重新序列化，未加载的用户直接复制原始行
+     */
+    void writeRows(BufferedWriter writer) throws IOException {
+        for (Map.Entry<String, Integer> entry : rowOffsets.entrySet()) {
+            User user = super.get(entry.getKey());
+            if (user != null) {
+                writer.write(FileManager.formatUserRow(user));
+            } else {
+                writer.write(unloadedRow(entry.getValue()));
+            }
+            writer.newLine();
+        }
+        for (User user : super.values()) {
+            if (!rowOffsets.containsKey(user.getUsername())) {
+                writer.write(FileManager.formatUserRow(user));
+                writer.newLine();
+            }
+        }
+    }
+
+    private void loadAll() {
+        for (String username : rowOffsets.keySet()) {
+            if (!super.containsKey(username)) {
+                User user = parseRow(rowOffsets.get(username));
+                super.put(username, user);
+                notifyLoaded(user);
+            }
+        }
+    }
+
+    private void notifyLoaded(User user) {
+        LoadListener listener = loadListener;
+        if (listener != null && user != null) {
+            listener.userLoaded(user);
+        }
+    }
+
+    private User parseRow(int offset) {
+        ByteBuffer row = data.duplicate();
+        row.position(offset);
+        MappedCsvReader reader = new MappedCsvReader(row);
+        reader.nextRecord();
+        return FileManager.parseUserRow(reader);
+    }
+
+    /**
+     * 未加载用户的行：密码已是哈希时原样复制，否则像全量保存一样解析后重新格式化（写入哈希）
+     */
+    private String unloadedRow(int offset) {
+        ByteBuffer row = data.duplicate();
+        row.position(offset);
+        MappedCsvReader reader = new MappedCsvReader(row);
+        reader.nextRecord();
+        if (PasswordUtil.isHash(reader.getString(1))) {
+            return rawRow(offset);
+        }
+        return FileManager.formatUserRow(FileManager.parseUserRow(reader));
+    }
+
+    private String rawRow(int offset) {
+        int end = offset;
+        int limit = data.limit();
+        while (end < limit && data.get(end) != '\n' && data.get(end) != '\r') {
+            end++;
+        }
+        byte[] bytes = new byte[end - offset];
+        ByteBuffer row = data.duplicate();
+        row.position(offset);
+        row.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
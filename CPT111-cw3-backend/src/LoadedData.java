@@ -0,0 +1,36 @@
+import java.util.HashMap;
+
+/**
+ * LoadedData类：一次启动加载的结果
+ * 包含电影、用户以及因字段数不足而被跳过的行数
+ */
+public class LoadedData {
+    private final HashMap<String, Movie> movies;
+    private final HashMap<String, User> users;
+    private final int skippedMovieRows;
+    private final int skippedUserRows;
+
+    public LoadedData(HashMap<String, Movie> movies, HashMap<String, User> users,
+                      int skippedMovieRows, int skippedUserRows) {
+        this.movies = movies;
+        this.users = users;
+        this.skippedMovieRows = skippedMovieRows;
+        this.skippedUserRows = skippedUserRows;
+    }
+
+    public HashMap<String, Movie> getMovies() {
+        return movies;
+    }
+
+    public HashMap<String, User> getUsers() {
+        return users;
+    }
+
+    public int getSkippedMovieRows() {
+        return skippedMovieRows;
+    }
+
+    public int getSkippedUserRows() {
+        return skippedUserRows;
+    }
+}
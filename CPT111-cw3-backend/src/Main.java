@@ -1,6 +1,7 @@
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Scanner;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
@@ -13,7 +14,7 @@ public class Main {
     private static HashMap<String, Movie> movies;
     private static HashMap<String, User> users;
     private static User currentUser;
-    private static FileManager fileManager;
+    private static PersistenceScheduler persistenceScheduler;
     private static RecommendationEngine recommendationEngine;
     private static Scanner scanner;
 
@@ -26,23 +27,153 @@ public class Main {
         String moviesPath = "CW3_Data_Files/data/movies.csv";
         String usersPath = "CW3_Data_Files/data/users.csv";
 
-        if (args.length > 0 && "--gui".equalsIgnoreCase(args[0])) {
-            MovieAppGUI.launchApp(moviesPath, usersPath);
+        // 命令行参数：--gui 启动图形界面，--load-threads=N 使用N个线程并行加载，
+        // --lazy-users 按需加载用户，--user-idle-minutes=N 未修改的用户空闲N分钟后可被淘汰，
+        // --user-store=csv|embedded 选择用户存储，--user-shards=N 从N个分片文件加载用户，
+        // --migrate-user-shards=N 把 users.csv 拆分成N个分片后退出，
+        // --compress-output=N 以 gzip 级别N（1-9，0 表示普通CSV）保存用户数据，读取时自动识别并边解压边解析
+        // （--lazy-users 需要随机访问，会把压缩文件整个解压到内存，上限2GB，大文件请用 --compress-output=0），
+        // --batch-recommendations=FILE 为所有用户计算推荐并写入FILE后退出（线程数同 --load-threads），
+        // --precomputed-recommendations=FILE 交互式推荐优先使用批量任务的结果，
+        // --strategy=NAME 或 --strategy=ROLE:NAME 选择全部用户或某个角色的推荐策略，
+        // --benchmark-strategies 在所有用户上比较各推荐策略后退出，
+        // --lsh-tables=N、--lsh-bits=N 调整相似电影索引（表越多召回率越高，位数越多查询越快），
+        // --half-life-days=N 近期加权推荐中观看记录的权重每N天减半，
+        // --columnar-catalog 加权打分扫描列式目录（MovieTable）而不是 Movie 对象
+        boolean useGui = false;
+        int loadThreads = 1;
+        boolean lazyUsers = false;
+        int idleMinutes = 30;
+        String userBackend = DataRepositories.CSV;
+        int userShards = 1;
+        int migrateShards = 0;
+        int compressionLevel = CsvCompression.NONE;
+        String batchOutput = null;
+        String precomputedPath = null;
+        ArrayList<String> strategyOptions = new ArrayList<>();
+        boolean benchmarkStrategies = false;
+        int lshTables = SimilarMovieIndex.DEFAULT_TABLES;
+        int lshBits = SimilarMovieIndex.DEFAULT_BITS;
+        int halfLifeDays = (int) TasteProfile.DEFAULT_HALF_LIFE_DAYS;
+        boolean columnarCatalog = false;
+        for (String arg : args) {
+            if ("--gui".equalsIgnoreCase(arg)) {
+                useGui = true;
+            } else if (arg.startsWith("--load-threads=")) {
+                loadThreads = parsePositiveOption(arg, 1);
+            } else if ("--lazy-users".equalsIgnoreCase(arg)) {
+                lazyUsers = true;
+            } else if (arg.startsWith("--user-idle-minutes=")) {
+                idleMinutes = parsePositiveOption(arg, 30);
+            } else if (arg.startsWith("--user-store=")) {
+                userBackend = arg.substring("--user-store=".length()).trim();
+            } else if (arg.startsWith("--user-shards=")) {
+                userShards = parsePositiveOption(arg, 1);
+            } else if (arg.startsWith("--migrate-user-shards=")) {
+                migrateShards = parsePositiveOption(arg, 0);
+            } else if (arg.startsWith("--compress-output=")) {
+                compressionLevel = parseCompressionLevel(arg);
+            } else if (arg.startsWith("--batch-recommendations=")) {
+                batchOutput = arg.substring("--batch-recommendations=".length()).trim();
+            } else if (arg.startsWith("--precomputed-recommendations=")) {
+                precomputedPath = arg.substring("--precomputed-recommendations=".length()).trim();
+            } else if (arg.startsWith("--strategy=")) {
+                strategyOptions.add(arg.substring("--strategy=".length()).trim());
+            } else if ("--benchmark-strategies".equalsIgnoreCase(arg)) {
+                benchmarkStrategies = true;
+            } else if (arg.startsWith("--lsh-tables=")) {
+                lshTables = parsePositiveOption(arg, SimilarMovieIndex.DEFAULT_TABLES);
+            } else if (arg.startsWith("--lsh-bits=")) {
+                lshBits = parsePositiveOption(arg, SimilarMovieIndex.DEFAULT_BITS);
+            } else if (arg.startsWith("--half-life-days=")) {
+                halfLifeDays = parsePositiveOption(arg, (int) TasteProfile.DEFAULT_HALF_LIFE_DAYS);
+            } else if ("--columnar-catalog".equalsIgnoreCase(arg)) {
+                columnarCatalog = true;
+            }
+        }
+
+        FileManager fileManager = new FileManager(moviesPath, usersPath);
+        fileManager.setLoadThreads(loadThreads);
+        fileManager.setLazyUsers(lazyUsers, idleMinutes * 60L * 1000L);
+        fileManager.setUserShards(userShards);
+        fileManager.setOutputCompression(compressionLevel);
+        if (migrateShards > 0) {
+            try {
+                int migrated = fileManager.migrateToShards(migrateShards);
+                System.out.println("Migrated " + migrated + " users into " + migrateShards
+                        + " shards. Start with --user-shards=" + migrateShards + " from now on.");
+            } catch (IOException e) {
+                System.out.println("Error: Unable to migrate users: " + e.getMessage());
+                System.exit(1);
+            }
+            return;
+        }
+        DataRepositories repositories;
+        try {
+            repositories = DataRepositories.open(fileManager, userBackend, usersPath);
+        } catch (IOException e) {
+            System.out.println("Error: Unable to open user store: " + e.getMessage());
+            System.exit(1);
             return;
         }
 
         scanner = new Scanner(System.in);
-        fileManager = new FileManager(moviesPath, usersPath);
 
         // 加载数据
         try {
             System.out.println("Loading data...");
-            movies = fileManager.loadMovies();
-            users = fileManager.loadUsers();
-            recommendationEngine = new RecommendationEngine(movies);
+            LoadedData data = repositories.load();
+            movies = data.getMovies();
+            users = data.getUsers();
+            recommendationEngine = new RecommendationEngine(movies, users);
+            recommendationEngine.setHalfLifeDays(halfLifeDays);
+            for (String option : strategyOptions) {
+                applyStrategyOption(option);
+            }
+            if (lshTables != SimilarMovieIndex.DEFAULT_TABLES || lshBits != SimilarMovieIndex.DEFAULT_BITS) {
+                recommendationEngine.configureSimilarIndex(lshTables, lshBits);
+            }
+            if (columnarCatalog) {
+                recommendationEngine.setColumnarCatalog(true);
+            }
+            if (benchmarkStrategies) {
+                StrategyBenchmark benchmark = new StrategyBenchmark(recommendationEngine, 1);
+                System.out.println(StrategyBenchmark.format(
+                        benchmark.run(users.values(), 10, RecommendationEngine.GENRE), RecommendationEngine.GENRE));
+                scanner.close();
+                return;
+            }
+            if (batchOutput != null) {
+                int batchThreads = loadThreads;
+                if (batchThreads <= 1) {
+                    batchThreads = Runtime.getRuntime().availableProcessors();
+                }
+                BatchRecommendationJob.Report report =
+                        new BatchRecommendationJob(recommendationEngine, batchThreads).run(users, batchOutput);
+                System.out.println(String.format("Computed recommendations for %d users in %d ms (%.1f users/s, %d threads).",
+                        report.getUsers(), report.getElapsedMillis(), report.getUsersPerSecond(), batchThreads));
+                System.out.println("Results written to " + batchOutput);
+                scanner.close();
+                return;
+            }
+            if (precomputedPath != null) {
+                recommendationEngine.setPrecomputed(BatchRecommendationJob.readResults(precomputedPath));
+            }
+            if (useGui) {
+                // 图形界面使用同样的数据和已按参数配置好的推荐引擎
+                scanner.close();
+                MovieAppGUI.launchApp(repositories, data, recommendationEngine);
+                return;
+            }
+            persistenceScheduler = new PersistenceScheduler(repositories.getUserRepository(), users);
+            persistenceScheduler.start();
             System.out.println("Data loaded successfully!");
             System.out.println("Number of movies: " + movies.size());
             System.out.println("Number of users: " + users.size());
+            if (data.getSkippedMovieRows() > 0 || data.getSkippedUserRows() > 0) {
+                System.out.println("Skipped incomplete rows: " + data.getSkippedMovieRows()
+                        + " movies, " + data.getSkippedUserRows() + " users");
+            }
             System.out.println();
         } catch (IOException e) {
             System.out.println("Error: Unable to load data files: " + e.getMessage());
@@ -59,9 +190,12 @@ public class Main {
             }
         }
 
-        // 保存数据并退出
+        // 写入剩余修改、保存数据并退出
         try {
-            fileManager.saveUsers(users);
+            persistenceScheduler.shutdown();
+            RecommendationCache cache = recommendationEngine.getCache();
+            System.out.println("Recommendation cache: " + cache.getHits() + " hits, "
+                    + cache.getMisses() + " misses.");
             System.out.println("Data saved. Goodbye!");
         } catch (IOException e) {
             System.out.println("Warning: Error saving data: " + e.getMessage());
@@ -69,6 +203,57 @@ public class Main {
         scanner.close();
     }
 
+    /**
+     * 应用 --strategy 参数：NAME 设置默认策略，ROLE:NAME 设置某个角色的策略
+     */
+    private static void applyStrategyOption(String option) {
+        try {
+            int separator = option.indexOf(':');
+            if (separator < 0) {
+                recommendationEngine.setDefaultStrategy(option);
+            } else {
+                recommendationEngine.setStrategyForRole(option.substring(0, separator).trim(),
+                        option.substring(separator + 1).trim());
+            }
+        } catch (IllegalArgumentException e) {
+            System.out.println("Ignoring --strategy=" + option + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * 解析 --name=value 形式的正整数参数，非法输入时使用默认值
+     */
+    private static int parsePositiveOption(String arg, int defaultValue) {
+        String value = arg.substring(arg.indexOf('=') + 1);
+        try {
+            int parsed = Integer.parseInt(value.trim());
+            if (parsed < 1) {
+                return defaultValue;
+            }
+            return parsed;
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid value for " + arg + ", using " + defaultValue + ".");
+            return defaultValue;
+        }
+    }
+
+    /**
+     * 解析 --compress-output=N：0 表示不压缩，1-9 为 gzip 级别，非法输入时使用级别6
+     */
+    private static int parseCompressionLevel(String arg) {
+        String value = arg.substring(arg.indexOf('=') + 1);
+        try {
+            int parsed = Integer.parseInt(value.trim());
+            if (parsed >= CsvCompression.NONE && parsed <= 9) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // 与超出范围的值一样处理
+        }
+        System.out.println("Invalid value for " + arg + ", using 6.");
+        return 6;
+    }
+
     /**
      * 显示登录菜单
      * @return 如果选择退出返回false，否则返回true
@@ -159,9 +344,10 @@ public class Main {
         System.out.println("5. Mark movie as watched");
         System.out.println("6. View history");
         System.out.println("7. Get recommendations");
-        System.out.println("8. Change password");
-        System.out.println("9. Create new account");
-        System.out.println("10. Logout");
+        System.out.println("8. Similar movies");
+        System.out.println("9. Change password");
+        System.out.println("10. Create new account");
+        System.out.println("11. Logout");
         System.out.print("Please choose: ");
 
         try {
@@ -191,12 +377,15 @@ public class Main {
                     getRecommendations();
                     break;
                 case 8:
-                    changePassword();
+                    showSimilarMovies();
                     break;
                 case 9:
-                    createNewAccount();
+                    changePassword();
                     break;
                 case 10:
+                    createNewAccount();
+                    break;
+                case 11:
                     handleLogout();
                     break;
                 default:
@@ -258,7 +447,7 @@ public class Main {
             System.out.println("Successfully added to watchlist!");
             Movie movie = movies.get(movieId);
             System.out.println("Movie: " + movie.getTitle());
-            persistUsers();
+            persistChange(UserJournal.WATCHLIST_ADD, movieId);
         } else {
             System.out.println("Failed to add.");
         }
@@ -274,8 +463,13 @@ public class Main {
             return;
         }
 
-        System.out.print("Please enter movie ID: ");
-        String movieId = scanner.nextLine().trim().toUpperCase();
+        System.out.print("Please enter movie ID (separate several IDs with commas): ");
+        String input = scanner.nextLine().trim().toUpperCase();
+        if (input.contains(",")) {
+            removeSeveralFromWatchlist(watchlist, input.split(","));
+            return;
+        }
+        String movieId = input;
 
         if (watchlist.removeMovie(movieId)) {
             System.out.println("Successfully removed from watchlist!");
@@ -283,12 +477,39 @@ public class Main {
             if (movie != null) {
                 System.out.println("Movie: " + movie.getTitle());
             }
-            persistUsers();
+            persistChange(UserJournal.WATCHLIST_REMOVE, movieId);
         } else {
             System.out.println("This movie is not in your watchlist.");
         }
     }
 
+    /**
+     * 一次移除多部电影，只写一条记录
+     */
+    private static void removeSeveralFromWatchlist(Watchlist watchlist, String[] movieIds) {
+        ArrayList<String> ids = new ArrayList<>();
+        for (String movieId : movieIds) {
+            if (!movieId.trim().isEmpty()) {
+                ids.add(movieId.trim());
+            }
+        }
+        LinkedHashMap<String, Boolean> results = watchlist.removeAll(ids);
+        int removed = 0;
+        for (String movieId : results.keySet()) {
+            if (results.get(movieId)) {
+                removed++;
+                System.out.println("Removed: " + movieId);
+            } else {
+                System.out.println("Not in your watchlist: " + movieId);
+            }
+        }
+        System.out.println("Removed " + removed + " of " + results.size() + " movies.");
+        if (removed > 0) {
+            persistenceScheduler.markWatchlistChanged(currentUser);
+            reportPersistenceError();
+        }
+    }
+
     /**
      * 查看观看列表
      */
@@ -337,6 +558,7 @@ public class Main {
         String date = today.format(formatter);
 
         if (currentUser.getHistory().addMovie(movieId, date)) {
+            persistChange(UserJournal.HISTORY_ADD, movieId, date);
             System.out.println("Successfully marked as watched!");
             Movie movie = movies.get(movieId);
             System.out.println("Movie: " + movie.getTitle());
@@ -345,9 +567,9 @@ public class Main {
             // If the movie is in watchlist, remove it
             if (currentUser.getWatchlist().contains(movieId)) {
                 currentUser.getWatchlist().removeMovie(movieId);
+                persistChange(UserJournal.WATCHLIST_REMOVE, movieId);
                 System.out.println("Removed from watchlist.");
             }
-            persistUsers();
         } else {
             System.out.println("Failed to mark as watched.");
         }
@@ -397,8 +619,10 @@ public class Main {
                 n = limit;
             }
 
-            System.out.println("=== Recommended Movies (Strategy: " + recommendationEngine.getStrategyName() + ") ===");
-            ArrayList<Movie> recommendations = recommendationEngine.getRecommendations(currentUser, n);
+            RecommendationStrategy strategy = chooseStrategy();
+            System.out.println("=== Recommended Movies (Strategy: " + strategy.getDescription() + ") ===");
+            ArrayList<Movie> recommendations =
+                    recommendationEngine.getRecommendations(currentUser, n, strategy.getName());
 
             if (recommendations.isEmpty()) {
                 System.out.println("No recommendations available.");
@@ -413,6 +637,60 @@ public class Main {
         }
     }
 
+    /**
+     * 查看与某部电影相似的电影
+     */
+    private static void showSimilarMovies() {
+        System.out.print("Please enter movie ID: ");
+        String movieId = scanner.nextLine().trim().toUpperCase();
+        Movie movie = movies.get(movieId);
+        if (movie == null) {
+            System.out.println("Error: Movie ID does not exist.");
+            return;
+        }
+        System.out.print("Please enter number of similar movies (N): ");
+        try {
+            int n = Integer.parseInt(scanner.nextLine().trim());
+            if (n <= 0) {
+                System.out.println("Number of movies must be greater than 0.");
+                return;
+            }
+            System.out.println("=== Movies Similar to " + movie.getTitle() + " ===");
+            ArrayList<Movie> similar = recommendationEngine.getSimilarMovies(movieId, n);
+            if (similar.isEmpty()) {
+                System.out.println("No similar movies found.");
+                return;
+            }
+            for (int i = 0; i < similar.size(); i++) {
+                System.out.println((i + 1) + ". " + similar.get(i));
+            }
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid input, please enter a number.");
+        }
+    }
+
+    /**
+     * 让用户为本次请求选择策略，直接回车使用其角色对应的策略
+     */
+    private static RecommendationStrategy chooseStrategy() {
+        RecommendationStrategy defaultStrategy = recommendationEngine.getStrategyFor(currentUser);
+        ArrayList<String> names = new ArrayList<>();
+        for (RecommendationStrategy strategy : recommendationEngine.getStrategies()) {
+            names.add(strategy.getName());
+        }
+        System.out.print("Strategy " + names + " (press Enter for " + defaultStrategy.getName() + "): ");
+        String choice = scanner.nextLine().trim();
+        if (choice.isEmpty()) {
+            return defaultStrategy;
+        }
+        try {
+            return recommendationEngine.getStrategy(choice.toLowerCase());
+        } catch (IllegalArgumentException e) {
+            System.out.println("Unknown strategy, using " + defaultStrategy.getName() + ".");
+            return defaultStrategy;
+        }
+    }
+
     /**
      * 更改密码（高级功能）
      */
@@ -435,7 +713,7 @@ public class Main {
 
         currentUser.setPassword(newPassword);
         System.out.println("Password changed successfully!");
-        persistUsers();
+        persistPasswordChange();
     }
 
     /**
@@ -477,7 +755,7 @@ public class Main {
         String role = promptUserRole();
         User newUser = UserFactory.createUser(username, password, role);
         users.put(username, newUser);
-        persistUsers();
+        persistNewUser(newUser);
         System.out.println("Account created successfully! Role: " + role);
         return newUser;
     }
@@ -503,21 +781,43 @@ public class Main {
      * 处理登出
      */
     private static void handleLogout() {
-        persistUsers();
-        System.out.println("Data saved.");
+        // 把还在队列中的修改立即写入变更日志，成功后才提示已保存
+        persistenceScheduler.flush();
+        if (!reportPersistenceError()) {
+            System.out.println("Data saved.");
+        }
         currentUser = null;
         System.out.println("Logged out.");
     }
 
     /**
-     * 保存所有用户数据（带统一异常处理）
+     * 把当前用户的一次修改交给后台线程写入变更日志（带统一异常处理）
      */
-    private static void persistUsers() {
-        try {
-            fileManager.saveUsers(users);
-        } catch (IOException e) {
-            System.out.println("Warning: Unable to save users: " + e.getMessage());
+    private static void persistChange(String operation, String... values) {
+        persistenceScheduler.markDirty(operation, currentUser, values);
+        reportPersistenceError();
+    }
+
+    private static void persistPasswordChange() {
+        persistenceScheduler.markPasswordChanged(currentUser);
+        reportPersistenceError();
+    }
+
+    private static void persistNewUser(User user) {
+        persistenceScheduler.markNewUser(user);
+        reportPersistenceError();
+    }
+
+    /**
+     * 显示后台写入时发生的错误（失败的记录会在下个周期重试）
+     * @return 有错误时返回true
+     */
+    private static boolean reportPersistenceError() {
+        IOException error = persistenceScheduler.takeLastError();
+        if (error != null) {
+            System.out.println("Warning: Unable to save users: " + error.getMessage());
+            return true;
         }
+        return false;
     }
 }
-
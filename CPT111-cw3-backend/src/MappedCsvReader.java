@@ -0,0 +1,454 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * MappedCsvReader类：基于内存映射文件的CSV读取器
+ * 直接在字节上切分字段，只记录每个字段的起止位置，
+ * 只有真正需要的字段才解码成String，数字字段直接从字节解析。
+ * 引号规则与 FileManager.splitCsvLine 一致：引号切换"引号内"状态并被去掉。
+ * gzip 压缩的文件不能映射，open 返回流式读取器：边解压边解析，内存中只保留一个窗口（至少一行）。
+ */
+public class MappedCsvReader {
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    // double 能精确表示的最大整数
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    private static final int STREAM_WINDOW = 64 * 1024;
+
+    private ByteBuffer buffer;
+    private int limit;
+    // 流式读取时的数据来源和窗口，读完后 source 为null
+    private InputStream source;
+    private byte[] window;
+    private int position;
+    private int recordStart;
+
+    private int fieldCount;
+    private int[] fieldStarts = new int[8];
+    private int[] fieldEnds = new int[8];
+    private boolean[] fieldQuoted = new boolean[8];
+    private boolean blankLine;
+    private byte[] scratch = new byte[64];
+
+    /**
+     * 构造函数
+     * @param buffer 要读取的字节区域，从 position 读到 limit
+     */
+    public MappedCsvReader(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.position = buffer.position();
+        this.limit = buffer.limit();
+    }
+
+    /**
+     * 流式读取：数据读进一个窗口，nextRecord 找不到完整的一行时才继续读取；
+     * 读到末尾或出错时关闭输入流
+     * @param source 输入流，例如 GZIPInputStream
+     */
+    public MappedCsvReader(InputStream source) {
+        this.window = new byte[STREAM_WINDOW];
+        this.buffer = ByteBuffer.wrap(window);
+        this.source = source;
+        this.position = 0;
+        this.limit = 0;
+    }
+
+    /**
+     * 打开文件：普通文件以只读方式映射，gzip 压缩的文件边解压边读取（见 isStreaming）
+     * @param path 文件路径
+     */
+    public static MappedCsvReader open(String path) throws IOException {
+        File file = new File(path);
+        if (CsvCompression.isCompressed(file)) {
+            MappedCsvReader reader = new MappedCsvReader(CsvCompression.openInflated(file));
+            // 先读入第一行，调用者跳过表头时不会再遇到读取错误
+            try {
+                reader.fillLine();
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            return reader;
+        }
+        return new MappedCsvReader(map(path));
+    }
+
+    /**
+     * 读取整个文件到一个缓冲区（LazyUserMap 需要按偏移随机访问）：
+     * 普通文件直接映射，gzip 压缩的文件解压到内存，上限 2GB
+     * @param path 文件路径
+     */
+    public static ByteBuffer read(String path) throws IOException {
+        File file = new File(path);
+        if (CsvCompression.isCompressed(file)) {
+            return CsvCompression.inflate(file);
+        }
+        return map(path);
+    }
+
+    /**
+     * 以只读方式映射整个文件，通道关闭后映射仍然有效
+     * @param path 文件路径
+     */
+    public static MappedByteBuffer map(String path) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File too large to map: " + path);
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+    }
+
+    /**
+     * 是否是流式读取器；流式读取器没有完整的缓冲区，不能使用 remainingData 切块
+     */
+    public boolean isStreaming() {
+        return window != null;
+    }
+
+    /**
+     * 返回尚未读取的部分，例如跳过表头后交给 ParallelCsvLoader 切块
+     * @throws IllegalStateException 流式读取器
+     */
+    public ByteBuffer remainingData() {
+        if (isStreaming()) {
+            throw new IllegalStateException("A streaming reader cannot be split into chunks");
+        }
+        ByteBuffer rest = buffer.duplicate();
+        rest.limit(limit);
+        rest.position(position);
+        return rest;
+    }
+
+    /**
+     * 读取下一行并切分字段
+     * @return 如果已经没有更多行返回false
+     * @throws UncheckedIOException 流式读取时读取或解压失败
+     */
+    public boolean nextRecord() {
+        if (source != null) {
+            fillLine();
+        }
+        if (position >= limit) {
+            return false;
+        }
+        fieldCount = 0;
+        blankLine = true;
+        recordStart = position;
+        boolean inQuotes = false;
+        boolean quoted = false;
+        int fieldStart = position;
+        int lineEnd = limit;
+        int next = limit;
+        for (int i = position; i < limit; i++) {
+            byte b = buffer.get(i);
+            if (b == '\n') {
+                lineEnd = i;
+                next = i + 1;
+                break;
+            }
+            if (b == '\r') {
+                lineEnd = i;
+                next = i + 1;
+                if (next < limit && buffer.get(next) == '\n') {
+                    next++;
+                }
+                break;
+            }
+            if (b > ' ' || b < 0) {
+                blankLine = false;
+            }
+            if (b == '\"') {
+                inQuotes = !inQuotes;
+                quoted = true;
+            } else if (b == ',' && !inQuotes) {
+                addField(fieldStart, i, quoted);
+                fieldStart = i + 1;
+                quoted = false;
+            }
+        }
+        addField(fieldStart, lineEnd, quoted);
+        position = next;
+        return true;
+    }
+
+    /**
+     * 当前行在缓冲区中的起始位置（流式读取时是在当前窗口中的位置）
+     */
+    public int recordStart() {
+        return recordStart;
+    }
+
+    /**
+     * 当前行是否只包含空白字符
+     */
+    public boolean isBlankLine() {
+        return blankLine;
+    }
+
+    public int fieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * 解码字段为去掉首尾空白的字符串
+     * @param index 字段下标，越界时返回空字符串
+     */
+    public String getString(int index) {
+        if (index >= fieldCount) {
+            return "";
+        }
+        int start = fieldStarts[index];
+        int end = fieldEnds[index];
+        if (scratch.length < end - start) {
+            scratch = new byte[end - start];
+        }
+        int length = 0;
+        for (int i = start; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b == '\"' && fieldQuoted[index]) {
+                continue;
+            }
+            scratch[length] = b;
+            length++;
+        }
+        int from = 0;
+        while (from < length && isWhitespace(scratch[from])) {
+            from++;
+        }
+        while (length > from && isWhitespace(scratch[length - 1])) {
+            length--;
+        }
+        return new String(scratch, from, length - from, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 直接从字节解析整数，不创建中间字符串
+     * @param index 字段下标
+     * @param defaultValue 无法解析时返回的默认值
+     */
+    public int getInt(int index, int defaultValue) {
+        if (index >= fieldCount) {
+            return defaultValue;
+        }
+        if (fieldQuoted[index]) {
+            return parseIntSlow(getString(index), defaultValue);
+        }
+        int start = trimStart(index);
+        int end = trimEnd(index, start);
+        if (start >= end) {
+            return defaultValue;
+        }
+        boolean negative = false;
+        byte first = buffer.get(start);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            start++;
+            if (start >= end) {
+                return defaultValue;
+            }
+        }
+        if (end - start > 10) {
+            return parseIntSlow(getString(index), defaultValue);
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return defaultValue;
+            }
+            value = value * 10 + digit;
+        }
+        if (negative) {
+            value = -value;
+        }
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            return defaultValue;
+        }
+        return (int) value;
+    }
+
+    /**
+     * 直接从字节解析小数（例如评分 9.3）。
+     * 普通的十进制写法在字节上完成，指数等少见写法交给 Double.parseDouble
+     * @param index 字段下标
+     * @param defaultValue 无法解析时返回的默认值
+     */
+    public double getDouble(int index, double defaultValue) {
+        if (index >= fieldCount) {
+            return defaultValue;
+        }
+        if (fieldQuoted[index]) {
+            return parseDoubleSlow(getString(index), defaultValue);
+        }
+        int start = trimStart(index);
+        int end = trimEnd(index, start);
+        if (start >= end) {
+            return defaultValue;
+        }
+        boolean negative = false;
+        byte first = buffer.get(start);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            start++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean seenPoint = false;
+        for (int i = start; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b == '.' && !seenPoint) {
+                seenPoint = true;
+            } else if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (seenPoint) {
+                    scale++;
+                }
+                if (digits > 18 || scale >= POWERS_OF_TEN.length) {
+                    return parseDoubleSlow(getString(index), defaultValue);
+                }
+            } else {
+                return parseDoubleSlow(getString(index), defaultValue);
+            }
+        }
+        if (digits == 0) {
+            return defaultValue;
+        }
+        // 尾数不超过 2^53 时能精确表示为 double，10 的幂（不超过 10^22）也是精确的，
+        // 两个精确值相除只舍入一次，结果与 Double.parseDouble 相同；更大的尾数交给 Double.parseDouble
+        if (mantissa > MAX_EXACT_MANTISSA) {
+            return parseDoubleSlow(getString(index), defaultValue);
+        }
+        double value = mantissa / POWERS_OF_TEN[scale];
+        if (negative) {
+            return -value;
+        }
+        return value;
+    }
+
+    /**
+     * 保证窗口中从 position 开始至少有完整的一行（或者已经读到末尾）。
+     * 行尾是 \r 时还要看到下一个字节，才能判断是否是 \r\n
+     */
+    private void fillLine() {
+        while (source != null) {
+            for (int i = position; i < limit; i++) {
+                if (window[i] == '\n' || (window[i] == '\r' && i + 1 < limit)) {
+                    return;
+                }
+            }
+            refill();
+        }
+    }
+
+    /**
+     * 把未读的部分移到窗口开头，窗口已满（一行比窗口长）时扩大一倍，再从输入流读取
+     */
+    private void refill() {
+        int remaining = limit - position;
+        if (position > 0) {
+            System.arraycopy(window, position, window, 0, remaining);
+            position = 0;
+            limit = remaining;
+        }
+        if (limit == window.length) {
+            if (window.length > Integer.MAX_VALUE / 2) {
+                closeSource();
+                throw new UncheckedIOException(new IOException("CSV line too long"));
+            }
+            byte[] grown = new byte[window.length * 2];
+            System.arraycopy(window, 0, grown, 0, limit);
+            window = grown;
+            buffer = ByteBuffer.wrap(window);
+        }
+        try {
+            int read = source.read(window, limit, window.length - limit);
+            if (read < 0) {
+                closeSource();
+            } else {
+                limit += read;
+            }
+        } catch (IOException e) {
+            closeSource();
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void closeSource() {
+        try {
+            source.close();
+        } catch (IOException e) {
+            // 已经读完或已经出错，关闭失败不影响结果
+        }
+        source = null;
+    }
+
+    private void addField(int start, int end, boolean quoted) {
+        if (fieldCount == fieldStarts.length) {
+            int newLength = fieldStarts.length * 2;
+            int[] newStarts = new int[newLength];
+            int[] newEnds = new int[newLength];
+            boolean[] newQuoted = new boolean[newLength];
+            System.arraycopy(fieldStarts, 0, newStarts, 0, fieldCount);
+            System.arraycopy(fieldEnds, 0, newEnds, 0, fieldCount);
+            System.arraycopy(fieldQuoted, 0, newQuoted, 0, fieldCount);
+            fieldStarts = newStarts;
+            fieldEnds = newEnds;
+            fieldQuoted = newQuoted;
+        }
+        fieldStarts[fieldCount] = start;
+        fieldEnds[fieldCount] = end;
+        fieldQuoted[fieldCount] = quoted;
+        fieldCount++;
+    }
+
+    private int trimStart(int index) {
+        int start = fieldStarts[index];
+        int end = fieldEnds[index];
+        while (start < end && isWhitespace(buffer.get(start))) {
+            start++;
+        }
+        return start;
+    }
+
+    private int trimEnd(int index, int start) {
+        int end = fieldEnds[index];
+        while (end > start && isWhitespace(buffer.get(end - 1))) {
+            end--;
+        }
+        return end;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        // 与 String.trim 相同：所有不大于空格的ASCII字符
+        return b >= 0 && b <= ' ';
+    }
+
+    private static int parseIntSlow(String value, int defaultValue) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static double parseDoubleSlow(String value, double defaultValue) {
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+}
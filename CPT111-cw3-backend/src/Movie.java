@@ -1,36 +1,42 @@
 public class Movie {
     private final String id;
+    private final int handle;
     private final String title;
-    private final String genre;
+    private final int genreCode;
     private final int year;
     private final double rating;
-    private final String category;
+    private final int categoryCode;
 
     protected Movie(String id, String title, String genre, int year, double rating, String categoryValue) {
-        this.id = id;
+        // 类型、分类和ID都通过字典编码，相同的字符串在所有电影之间只保存一份
+        this.handle = StringDictionary.MOVIE_IDS.encode(id);
+        this.id = StringDictionary.MOVIE_IDS.decode(handle);
         this.title = title;
-        this.genre = genre;
+        this.genreCode = StringDictionary.GENRES.encode(genre);
         this.year = year;
         this.rating = rating;
         if (categoryValue == null) {
-            this.category = MovieCategory.FEATURE_FILM;
+            this.categoryCode = StringDictionary.CATEGORIES.encode(MovieCategory.FEATURE_FILM);
         } else {
-            this.category = categoryValue;
+            this.categoryCode = StringDictionary.CATEGORIES.encode(categoryValue);
         }
     }
 
     // Getters and Setters
     public String getId() { return id; }
+    public int getHandle() { return handle; }
     public String getTitle() { return title; }
-    public String getGenre() { return genre; }
+    public String getGenre() { return StringDictionary.GENRES.decode(genreCode); }
+    public int getGenreCode() { return genreCode; }
     public int getYear() { return year; }
     public double getRating() { return rating; }
-    public String getCategory() { return category; }
+    public String getCategory() { return StringDictionary.CATEGORIES.decode(categoryCode); }
+    public int getCategoryCode() { return categoryCode; }
 
     @Override
     public String toString() {
         return String.format("[%s] %s (%d) - %s | %s [Rating: %.1f]",
-                id, title, year, genre, category, rating);
+                id, title, year, getGenre(), getCategory(), rating);
     }
 
     @Override
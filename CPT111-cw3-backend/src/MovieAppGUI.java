@@ -23,10 +23,12 @@ import java.time.format.DateTimeFormatter;
 import javafx.util.Callback;
 
 public class MovieAppGUI extends Application {
-    private static String sharedMoviesPath;
-    private static String sharedUsersPath;
+    private static DataRepositories sharedRepositories;
+    private static LoadedData sharedData;
+    private static RecommendationEngine sharedEngine;
 
-    private FileManager fileManager;
+    private DataRepositories repositories;
+    private PersistenceScheduler persistenceScheduler;
     private HashMap<String, Movie> movies;
     private HashMap<String, User> users;
     private RecommendationEngine recommendationEngine;
@@ -40,15 +42,20 @@ public class MovieAppGUI extends Application {
     private Label headerLabel;
     private Label statusLabel;
 
-    public static void launchApp(String moviesPath, String usersPath) {
-        sharedMoviesPath = moviesPath;
-        sharedUsersPath = usersPath;
+    /**
+     * 使用 Main 按命令行参数打开的存储、加载的数据和配置好的推荐引擎
+     * （--strategy、--lsh-tables、--lsh-bits、--half-life-days 等）启动图形界面
+     */
+    public static void launchApp(DataRepositories repositories, LoadedData data, RecommendationEngine engine) {
+        sharedRepositories = repositories;
+        sharedData = data;
+        sharedEngine = engine;
         launch();
     }
 
-    public static void main(String[] args) {
-        sharedMoviesPath = "CW3_Data_Files/data/movies.csv";
-        sharedUsersPath = "CW3_Data_Files/data/users.csv";
+    public static void main(String[] args) throws IOException {
+        FileManager fileManager = new FileManager("CW3_Data_Files/data/movies.csv", "CW3_Data_Files/data/users.csv");
+        sharedRepositories = DataRepositories.open(fileManager, DataRepositories.CSV, "CW3_Data_Files/data/users.csv");
         launch();
     }
 
@@ -57,10 +64,20 @@ public class MovieAppGUI extends Application {
         this.primaryStage = stage;
         primaryStage.setTitle("Movie Recommendation & Tracker (JavaFX)");
         try {
-            this.fileManager = new FileManager(sharedMoviesPath, sharedUsersPath);
-            this.movies = fileManager.loadMovies();
-            this.users = fileManager.loadUsers();
-            this.recommendationEngine = new RecommendationEngine(movies);
+            this.repositories = sharedRepositories;
+            LoadedData data = sharedData;
+            if (data == null) {
+                data = repositories.load();
+            }
+            this.movies = data.getMovies();
+            this.users = data.getUsers();
+            if (sharedEngine != null) {
+                this.recommendationEngine = sharedEngine;
+            } else {
+                this.recommendationEngine = new RecommendationEngine(movies, users);
+            }
+            this.persistenceScheduler = new PersistenceScheduler(repositories.getUserRepository(), users);
+            persistenceScheduler.start();
         } catch (IOException e) {
             showFatalError("无法加载数据文件: " + e.getMessage());
             return;
@@ -69,6 +86,21 @@ public class MovieAppGUI extends Application {
         primaryStage.show();
     }
 
+    /**
+     * 关闭窗口时写入剩余修改并保存完整快照
+     */
+    @Override
+    public void stop() {
+        if (persistenceScheduler == null) {
+            return;
+        }
+        try {
+            persistenceScheduler.shutdown();
+        } catch (IOException e) {
+            System.err.println("Warning: Error saving data: " + e.getMessage());
+        }
+    }
+
     private void showLoginScene() {
         VBox root = new VBox(12);
         root.setPadding(new Insets(24));
@@ -196,8 +228,9 @@ public class MovieAppGUI extends Application {
         if (result.isPresent()) {
             User newUser = result.get();
             users.put(newUser.getUsername(), newUser);
-            persistUsersSafely();
-            messageLabel.setText("Account created! You can now login.");
+            if (persistNewUserSafely(newUser, messageLabel)) {
+                messageLabel.setText("Account created! You can now login.");
+            }
         }
     }
 
@@ -281,9 +314,17 @@ public class MovieAppGUI extends Application {
                 addSelectedMovieToWatchlist();
             }
         });
+        Button similarButton = new Button("Show movies similar to selected");
+        similarButton.setMaxWidth(Double.MAX_VALUE);
+        similarButton.setOnAction(new EventHandler<ActionEvent>() {
+            @Override
+            public void handle(ActionEvent event) {
+                showSimilarToSelected();
+            }
+        });
 
         VBox.setVgrow(movieListView, Priority.ALWAYS);
-        center.getChildren().addAll(label, movieListView, addButton);
+        center.getChildren().addAll(label, movieListView, addButton, similarButton);
         return center;
     }
 
@@ -385,7 +426,7 @@ public class MovieAppGUI extends Application {
                 currentUser.getRole(),
                 currentUser.getWatchlist().size(),
                 limitText,
-                recommendationEngine.getStrategyName()));
+                recommendationEngine.getStrategyName(currentUser)));
     }
 
     private void updateRecommendations() {
@@ -406,6 +447,27 @@ public class MovieAppGUI extends Application {
         }
     }
 
+    private void showSimilarToSelected() {
+        Movie selected = movieListView.getSelectionModel().getSelectedItem();
+        if (selected == null) {
+            statusLabel.setText("Please select a movie first.");
+            return;
+        }
+        ArrayList<Movie> similar = recommendationEngine.getSimilarMovies(
+                selected.getId(),
+                currentUser.getRecommendationLimit());
+        if (similar.isEmpty()) {
+            recommendationArea.setText("No similar movies found for " + selected.getTitle() + ".");
+        } else {
+            StringBuilder text = new StringBuilder("Movies similar to ").append(selected.getTitle()).append(":\n");
+            for (int i = 0; i < similar.size(); i++) {
+                text.append(i + 1).append(". ").append(similar.get(i).toString()).append('\n');
+            }
+            recommendationArea.setText(text.toString());
+        }
+        statusLabel.setText("Showing movies similar to: " + selected.getTitle());
+    }
+
     private String formatMovieLine(String movieId) {
         Movie movie = movies.get(movieId);
         if (movie == null) {
@@ -437,7 +499,7 @@ public class MovieAppGUI extends Application {
             return;
         }
         if (currentUser.getWatchlist().addMovie(selected.getId())) {
-            persistUsersSafely();
+            persistChangeSafely(UserJournal.WATCHLIST_ADD, selected.getId());
             statusLabel.setText("Added to watchlist: " + selected.getTitle());
             refreshAllLists();
         }
@@ -451,7 +513,7 @@ public class MovieAppGUI extends Application {
         }
         String movieId = currentUser.getWatchlist().getMovieIds().get(index);
         if (currentUser.getWatchlist().removeMovie(movieId)) {
-            persistUsersSafely();
+            persistChangeSafely(UserJournal.WATCHLIST_REMOVE, movieId);
             statusLabel.setText("Removed from watchlist.");
             refreshAllLists();
         }
@@ -469,7 +531,8 @@ public class MovieAppGUI extends Application {
         String date = today.format(formatter);
         if (currentUser.getHistory().addMovie(movieId, date)) {
             currentUser.getWatchlist().removeMovie(movieId);
-            persistUsersSafely();
+            persistChangeSafely(UserJournal.HISTORY_ADD, movieId, date);
+            persistChangeSafely(UserJournal.WATCHLIST_REMOVE, movieId);
             statusLabel.setText("Marked as watched.");
             refreshAllLists();
         }
@@ -500,17 +563,37 @@ public class MovieAppGUI extends Application {
                 return;
             }
             currentUser.setPassword(newField.getText());
-            persistUsersSafely();
+            persistPasswordChangeSafely();
             statusLabel.setText("Password updated successfully.");
         }
     }
 
-    private void persistUsersSafely() {
-        try {
-            fileManager.saveUsers(users);
-        } catch (IOException e) {
-            statusLabel.setText("Error saving users: " + e.getMessage());
+    private void persistChangeSafely(String operation, String... values) {
+        persistenceScheduler.markDirty(operation, currentUser, values);
+        reportPersistenceError(statusLabel);
+    }
+
+    private void persistPasswordChangeSafely() {
+        persistenceScheduler.markPasswordChanged(currentUser);
+        reportPersistenceError(statusLabel);
+    }
+
+    private boolean persistNewUserSafely(User user, Label messageLabel) {
+        persistenceScheduler.markNewUser(user);
+        return !reportPersistenceError(messageLabel);
+    }
+
+    /**
+     * 显示后台写入时发生的错误（失败的记录会在下个周期重试）
+     * @return 有错误时返回true
+     */
+    private boolean reportPersistenceError(Label label) {
+        IOException error = persistenceScheduler.takeLastError();
+        if (error == null) {
+            return false;
         }
+        label.setText("Error saving users: " + error.getMessage());
+        return true;
     }
 
     private void showFatalError(String message) {
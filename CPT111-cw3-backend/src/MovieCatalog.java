@@ -0,0 +1,121 @@
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * MovieCatalog类：电影目录的不可变快照，包含电影以及由它派生的全部索引
+ * 构造时复制电影表并一次建好 MovieIndex 和 SimilarMovieIndex（启用列式目录时还有 MovieTable），之后任何字段都不再修改，
+ * 因此读者拿到快照后可以在任意线程中无锁读取。
+ * 修改目录或索引参数时创建新的快照（写时复制），由 RecommendationEngine 通过 AtomicReference 原子替换；
+ * 正在使用旧快照的读者不受影响。
+ */
+public final class MovieCatalog {
+    private final long version;
+    private final Map<String, Movie> movies;
+    private final MovieIndex index;
+    private final SimilarMovieIndex similarIndex;
+    // 列式目录，未启用时为null
+    private final MovieTable table;
+
+    public MovieCatalog(Map<String, Movie> movies, int lshTables, int lshBits, long version) {
+        this(movies, lshTables, lshBits, false, version);
+    }
+
+    /**
+     * 构造函数
+     * @param movies 全部电影，会被复制，之后修改参数中的 HashMap 不影响快照
+     * @param lshTables 相似电影索引的哈希表数量
+     * @param lshBits 相似电影索引每张表的哈希位数
+     * @param columnar 是否同时建立列式目录（MovieTable）
+     * @param version 快照版本号
+     */
+    public MovieCatalog(Map<String, Movie> movies, int lshTables, int lshBits, boolean columnar, long version) {
+        this.version = version;
+        this.movies = Collections.unmodifiableMap(new HashMap<>(movies));
+        this.index = new MovieIndex(this.movies.values());
+        this.similarIndex = new SimilarMovieIndex(this.movies.values(), lshTables, lshBits, 1L);
+        if (columnar) {
+            this.table = MovieTable.from(this.movies.values());
+        } else {
+            this.table = null;
+        }
+    }
+
+    private MovieCatalog(MovieCatalog base, SimilarMovieIndex similarIndex, MovieTable table) {
+        this.version = base.version + 1;
+        this.movies = base.movies;
+        this.index = base.index;
+        this.similarIndex = similarIndex;
+        this.table = table;
+    }
+
+    /**
+     * 电影不变、只重建相似电影索引的新快照（电影表和倒排索引与当前快照共享）
+     */
+    public MovieCatalog withSimilarIndex(int lshTables, int lshBits) {
+        return new MovieCatalog(this, new SimilarMovieIndex(movies.values(), lshTables, lshBits, 1L), table);
+    }
+
+    /**
+     * 电影不变、建立或去掉列式目录的新快照
+     */
+    public MovieCatalog withColumnarTable(boolean columnar) {
+        MovieTable replacement = null;
+        if (columnar) {
+            replacement = table;
+            if (replacement == null) {
+                replacement = MovieTable.from(movies.values());
+            }
+        }
+        return new MovieCatalog(this, similarIndex, replacement);
+    }
+
+    /**
+     * 换成另一批电影的新快照，相似电影索引和列式目录沿用当前的设置
+     */
+    public MovieCatalog withMovies(Map<String, Movie> replacement) {
+        return new MovieCatalog(replacement, similarIndex.getTableCount(), similarIndex.getBits(), table != null,
+                version + 1);
+    }
+
+    /**
+     * 快照版本号，每次替换加一
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * 全部电影（只读）。同一个快照总是返回同一个对象，History 据此判断是否需要重建口味统计
+     */
+    public Map<String, Movie> getMovies() {
+        return movies;
+    }
+
+    /**
+     * @return 不存在时返回null
+     */
+    public Movie getMovie(String movieId) {
+        return movies.get(movieId);
+    }
+
+    public int size() {
+        return movies.size();
+    }
+
+    public MovieIndex getIndex() {
+        return index;
+    }
+
+    public SimilarMovieIndex getSimilarIndex() {
+        return similarIndex;
+    }
+
+    /**
+     * 列式目录
+     * @return 未启用时返回null
+     */
+    public MovieTable getTable() {
+        return table;
+    }
+}
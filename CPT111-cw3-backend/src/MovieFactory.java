@@ -9,7 +9,7 @@ public final class MovieFactory {
         return new FeatureFilm(id, title, genre, year, rating);
     }
 
-    private static String determineCategory(String genre, int year) {
+    static String determineCategory(String genre, int year) {
         if ("ANIMATION".equalsIgnoreCase(genre) || year < 1980) {
             return MovieCategory.SHORT_FILM;
         }
@@ -0,0 +1,109 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * MovieIndex类：类型和分类的倒排索引
+ * 每个类型编号、分类编号对应一个按评分从高到低排序的电影列表（评分相同时按ID排序），
+ * 推荐时只需要从头遍历相关列表，取够数量就可以停止。
+ * 目录加载后不再变化，索引在构造时一次建好，之后只读，可以被多个线程共享。
+ */
+public class MovieIndex {
+    private static final Comparator<Movie> BY_RATING = new Comparator<Movie>() {
+        @Override
+        public int compare(Movie a, Movie b) {
+            int byRating = Double.compare(b.getRating(), a.getRating());
+            if (byRating != 0) {
+                return byRating;
+            }
+            return a.getId().compareTo(b.getId());
+        }
+    };
+
+    private final HashMap<Integer, List<Movie>> byGenre = new HashMap<>();
+    private final HashMap<Integer, List<Movie>> byCategory = new HashMap<>();
+    private final List<Movie> byRating;
+
+    public MovieIndex(Collection<Movie> movies) {
+        ArrayList<Movie> all = new ArrayList<>(movies.size());
+        for (Movie movie : movies) {
+            if (movie == null) {
+                continue;
+            }
+            all.add(movie);
+            addPosting(byGenre, movie.getGenreCode(), movie);
+            addPosting(byCategory, movie.getCategoryCode(), movie);
+        }
+        Collections.sort(all, BY_RATING);
+        this.byRating = Collections.unmodifiableList(all);
+        sortPostings(byGenre);
+        sortPostings(byCategory);
+    }
+
+    /**
+     * 某个类型的电影，按评分从高到低
+     * @return 没有该类型时返回空列表
+     */
+    public List<Movie> byGenre(String genre) {
+        return postings(byGenre, StringDictionary.GENRES.find(genre));
+    }
+
+    /**
+     * 某个分类（MovieCategory）的电影，按评分从高到低
+     * @return 没有该分类时返回空列表
+     */
+    public List<Movie> byCategory(String category) {
+        return postings(byCategory, StringDictionary.CATEGORIES.find(category));
+    }
+
+    /**
+     * 出现在目录中的分类
+     */
+    public List<String> getCategories() {
+        ArrayList<String> categories = new ArrayList<>();
+        for (Integer code : byCategory.keySet()) {
+            categories.add(StringDictionary.CATEGORIES.decode(code));
+        }
+        Collections.sort(categories);
+        return categories;
+    }
+
+    /**
+     * 全部电影，按评分从高到低
+     */
+    public List<Movie> byRating() {
+        return byRating;
+    }
+
+    public int size() {
+        return byRating.size();
+    }
+
+    private static void addPosting(HashMap<Integer, List<Movie>> index, int code, Movie movie) {
+        List<Movie> postings = index.get(code);
+        if (postings == null) {
+            postings = new ArrayList<>();
+            index.put(code, postings);
+        }
+        postings.add(movie);
+    }
+
+    private static void sortPostings(HashMap<Integer, List<Movie>> index) {
+        for (Integer code : new ArrayList<>(index.keySet())) {
+            List<Movie> postings = index.get(code);
+            Collections.sort(postings, BY_RATING);
+            index.put(code, Collections.unmodifiableList(postings));
+        }
+    }
+
+    private static List<Movie> postings(HashMap<Integer, List<Movie>> index, int code) {
+        List<Movie> postings = index.get(code);
+        if (postings == null) {
+            return Collections.emptyList();
+        }
+        return postings;
+    }
+}
@@ -0,0 +1,13 @@
+import java.io.IOException;
+import java.util.HashMap;
+
+/**
+ * MovieRepository接口：电影数据的存储方式
+ */
+public interface MovieRepository {
+    /**
+     * 加载全部电影
+     * @return HashMap，键为电影ID，值为Movie对象
+     */
+    HashMap<String, Movie> loadMovies() throws IOException;
+}
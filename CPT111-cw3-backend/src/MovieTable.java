@@ -0,0 +1,333 @@
+import java.util.Collection;
+import java.util.HashMap;
+
+/**
+ * MovieTable类：按列存储的电影目录，适合很大的目录
+ * 每个字段一个基本类型数组（年份 int[]、评分 float[]、类型编号 short[]、分类标志 byte[]），
+ * 按年份、评分或类型扫描时只遍历连续的数组，不需要访问一个个 Movie 对象。
+ * ID → 行号使用开放寻址（线性探测）的 int 数组，不装箱。
+ * 现有代码需要 Movie 时通过 getMovie / toMap 按需创建视图对象。
+ * 启用列式目录（--columnar-catalog）时，MovieCatalog 为每个快照建立一张表，
+ * RecommendationEngine 的加权打分直接扫描这些数组。
+ */
+public class MovieTable {
+    public static final byte FEATURE_FILM = 0;
+    public static final byte SHORT_FILM = 1;
+
+    private String[] ids;
+    private int[] handles;
+    private String[] titles;
+    private int[] years;
+    private float[] ratings;
+    private short[] genres;
+    private byte[] categories;
+    private int size;
+    // 槽位中保存 行号 + 1，0 表示空槽
+    private int[] slots;
+
+    public MovieTable() {
+        this(16);
+    }
+
+    /**
+     * 构造函数
+     * @param expectedSize 预计的电影数量，用来预先分配数组
+     */
+    public MovieTable(int expectedSize) {
+        int capacity = Math.max(4, expectedSize);
+        ids = new String[capacity];
+        handles = new int[capacity];
+        titles = new String[capacity];
+        years = new int[capacity];
+        ratings = new float[capacity];
+        genres = new short[capacity];
+        categories = new byte[capacity];
+        slots = new int[tableSizeFor(capacity)];
+    }
+
+    /**
+     * 从已加载的电影建立列式目录
+     */
+    public static MovieTable from(Collection<Movie> movies) {
+        MovieTable table = new MovieTable(movies.size());
+        for (Movie movie : movies) {
+            if (movie == null) {
+                continue;
+            }
+            byte category = FEATURE_FILM;
+            if (MovieCategory.SHORT_FILM.equals(movie.getCategory())) {
+                category = SHORT_FILM;
+            }
+            table.put(movie.getId(), movie.getTitle(), movie.getGenreCode(), movie.getYear(),
+                    (float) movie.getRating(), category);
+        }
+        return table;
+    }
+
+    /**
+     * 添加一部电影，分类与 MovieFactory 的规则相同；ID已存在时覆盖该行
+     * @return 行号
+     */
+    public int add(String id, String title, String genre, int year, double rating) {
+        byte category = FEATURE_FILM;
+        if (MovieCategory.SHORT_FILM.equals(MovieFactory.determineCategory(genre, year))) {
+            category = SHORT_FILM;
+        }
+        return put(id, title, StringDictionary.GENRES.encode(genre), year, (float) rating, category);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * ID对应的行号
+     * @return 不存在时返回-1
+     */
+    public int rowOf(String id) {
+        if (id == null) {
+            return -1;
+        }
+        int mask = slots.length - 1;
+        int index = mix(id.hashCode()) & mask;
+        while (slots[index] != 0) {
+            int row = slots[index] - 1;
+            if (ids[row].equals(id)) {
+                return row;
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    public boolean containsId(String id) {
+        return rowOf(id) >= 0;
+    }
+
+    public String getId(int row) {
+        return ids[row];
+    }
+
+    /**
+     * 电影ID的字典编号（StringDictionary.MOVIE_IDS），与 Movie.getHandle 相同
+     */
+    public int getHandle(int row) {
+        return handles[row];
+    }
+
+    public String getTitle(int row) {
+        return titles[row];
+    }
+
+    public int getYear(int row) {
+        return years[row];
+    }
+
+    public float getRating(int row) {
+        return ratings[row];
+    }
+
+    public int getGenreCode(int row) {
+        return genres[row];
+    }
+
+    public byte getCategoryFlag(int row) {
+        return categories[row];
+    }
+
+    /**
+     * 为某一行创建 Movie 视图（每次调用创建新对象，不缓存）
+     */
+    public Movie getMovie(int row) {
+        String genre = StringDictionary.GENRES.decode(genres[row]);
+        // float 评分转回 double 时按十进制字符串转换，8.1f 得到 8.1 而不是 8.100000381...
+        double rating = Double.parseDouble(Float.toString(ratings[row]));
+        if (categories[row] == SHORT_FILM) {
+            return new ShortFilm(ids[row], titles[row], genre, years[row], rating);
+        }
+        return new FeatureFilm(ids[row], titles[row], genre, years[row], rating);
+    }
+
+    /**
+     * 按ID创建 Movie 视图
+     * @return 不存在时返回null
+     */
+    public Movie getMovie(String id) {
+        int row = rowOf(id);
+        if (row < 0) {
+            return null;
+        }
+        return getMovie(row);
+    }
+
+    /**
+     * 为所有行创建 Movie 视图，供需要 HashMap&lt;String, Movie&gt; 的现有代码使用
+     */
+    public HashMap<String, Movie> toMap() {
+        HashMap<String, Movie> movies = new HashMap<>(size * 2);
+        for (int row = 0; row < size; row++) {
+            movies.put(ids[row], getMovie(row));
+        }
+        return movies;
+    }
+
+    /**
+     * 年份在 [fromYear, toYear] 之间的行
+     */
+    public int[] rowsByYear(int fromYear, int toYear) {
+        int[] rows = new int[size];
+        int count = 0;
+        for (int row = 0; row < size; row++) {
+            if (years[row] >= fromYear && years[row] <= toYear) {
+                rows[count] = row;
+                count++;
+            }
+        }
+        return trim(rows, count);
+    }
+
+    /**
+     * 评分不低于 minRating 的行
+     */
+    public int[] rowsWithRatingAtLeast(double minRating) {
+        float threshold = (float) minRating;
+        int[] rows = new int[size];
+        int count = 0;
+        for (int row = 0; row < size; row++) {
+            if (ratings[row] >= threshold) {
+                rows[count] = row;
+                count++;
+            }
+        }
+        return trim(rows, count);
+    }
+
+    /**
+     * 某个类型的行
+     * @return 没有该类型时返回空数组
+     */
+    public int[] rowsByGenre(String genre) {
+        int code = StringDictionary.GENRES.find(genre);
+        if (code == StringDictionary.NONE) {
+            return new int[0];
+        }
+        int[] rows = new int[size];
+        int count = 0;
+        for (int row = 0; row < size; row++) {
+            if (genres[row] == code) {
+                rows[count] = row;
+                count++;
+            }
+        }
+        return trim(rows, count);
+    }
+
+    /**
+     * 某个类型的平均评分
+     * @return 没有该类型时返回0
+     */
+    public double averageRatingOfGenre(String genre) {
+        int code = StringDictionary.GENRES.find(genre);
+        double total = 0;
+        int count = 0;
+        for (int row = 0; row < size; row++) {
+            if (genres[row] == code) {
+                total += ratings[row];
+                count++;
+            }
+        }
+        if (count == 0) {
+            return 0;
+        }
+        return total / count;
+    }
+
+    private int put(String id, String title, int genreCode, int year, float rating, byte category) {
+        if (genreCode > Short.MAX_VALUE) {
+            throw new IllegalStateException("Too many genres for MovieTable: " + genreCode);
+        }
+        int row = rowOf(id);
+        if (row < 0) {
+            ensureCapacity(size + 1);
+            row = size;
+            size++;
+            ids[row] = id;
+            handles[row] = StringDictionary.MOVIE_IDS.encode(id);
+            insertSlot(row);
+        }
+        titles[row] = title;
+        genres[row] = (short) genreCode;
+        years[row] = year;
+        ratings[row] = rating;
+        categories[row] = category;
+        return row;
+    }
+
+    private void insertSlot(int row) {
+        int mask = slots.length - 1;
+        int index = mix(ids[row].hashCode()) & mask;
+        while (slots[index] != 0) {
+            index = (index + 1) & mask;
+        }
+        slots[index] = row + 1;
+    }
+
+    private void ensureCapacity(int required) {
+        if (required > ids.length) {
+            int capacity = Math.max(required, ids.length * 2);
+            String[] grownIds = new String[capacity];
+            int[] grownHandles = new int[capacity];
+            String[] grownTitles = new String[capacity];
+            int[] grownYears = new int[capacity];
+            float[] grownRatings = new float[capacity];
+            short[] grownGenres = new short[capacity];
+            byte[] grownCategories = new byte[capacity];
+            System.arraycopy(ids, 0, grownIds, 0, size);
+            System.arraycopy(handles, 0, grownHandles, 0, size);
+            System.arraycopy(titles, 0, grownTitles, 0, size);
+            System.arraycopy(years, 0, grownYears, 0, size);
+            System.arraycopy(ratings, 0, grownRatings, 0, size);
+            System.arraycopy(genres, 0, grownGenres, 0, size);
+            System.arraycopy(categories, 0, grownCategories, 0, size);
+            ids = grownIds;
+            handles = grownHandles;
+            titles = grownTitles;
+            years = grownYears;
+            ratings = grownRatings;
+            genres = grownGenres;
+            categories = grownCategories;
+        }
+        // 装载因子不超过 0.5：超过时按 2 × required 重建，槽位数每次至少翻倍
+        if (required * 2 > slots.length) {
+            slots = new int[tableSizeFor(required)];
+            for (int row = 0; row < size; row++) {
+                insertSlot(row);
+            }
+        }
+    }
+
+    /**
+     * 不小于 2 × count 的2的幂
+     */
+    private static int tableSizeFor(int count) {
+        int capacity = 8;
+        while (capacity < count * 2) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    /**
+     * 打散 hashCode 的高位，线性探测时减少聚集
+     */
+    private static int mix(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static int[] trim(int[] rows, int count) {
+        int[] result = new int[count];
+        System.arraycopy(rows, 0, result, 0, count);
+        return result;
+    }
+}
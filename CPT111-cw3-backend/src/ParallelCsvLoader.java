@@ -0,0 +1,133 @@
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ParallelCsvLoader类：把一个已映射的CSV文件按行边界切成若干块，
+ * 在 ForkJoinPool 中并行解析，再按文件顺序合并成一个 HashMap
+ * （后面的行覆盖前面同键的行，与顺序加载的结果一致）。
+ * 压缩文件只能顺序解压，整个文件作为一块由一个线程解析，仍与其他文件并行。
+ */
+public class ParallelCsvLoader<T> {
+
+    /**
+     * 解析一块数据中的所有行
+     */
+    public interface RowParser<T> {
+        /**
+         * @param reader 只覆盖当前块的读取器
+         * @param into 解析结果
+         * @return 因字段数不足而跳过的行数
+         */
+        int parseRows(MappedCsvReader reader, HashMap<String, T> into);
+    }
+
+    private final ByteBuffer data;
+    private final MappedCsvReader streamReader;
+    private final RowParser<T> parser;
+    private final int[] boundaries;
+    private final AtomicInteger skippedRows = new AtomicInteger();
+
+    /**
+     * 构造函数
+     * @param data 数据区域（已跳过表头），从 position 到 limit
+     * @param parser 行解析器
+     * @param chunkCount 切分的块数
+     */
+    public ParallelCsvLoader(ByteBuffer data, RowParser<T> parser, int chunkCount) {
+        this.data = data;
+        this.streamReader = null;
+        this.parser = parser;
+        this.boundaries = findLineBoundaries(data, Math.max(1, chunkCount));
+    }
+
+    /**
+     * 从读取器剩下的部分创建加载器；流式读取器（压缩文件）不切块
+     * @param reader 已跳过表头的读取器
+     */
+    public static <T> ParallelCsvLoader<T> of(MappedCsvReader reader, RowParser<T> parser, int chunkCount) {
+        if (reader.isStreaming()) {
+            return new ParallelCsvLoader<>(reader, parser);
+        }
+        return new ParallelCsvLoader<>(reader.remainingData(), parser, chunkCount);
+    }
+
+    private ParallelCsvLoader(MappedCsvReader streamReader, RowParser<T> parser) {
+        this.data = null;
+        this.streamReader = streamReader;
+        this.parser = parser;
+        this.boundaries = new int[] {0, 1};
+    }
+
+    /**
+     * 把解析任务提交到线程池，调用者可以同时提交多个文件
+     */
+    public ForkJoinTask<HashMap<String, T>> submit(ForkJoinPool pool) {
+        return pool.submit(new ChunkTask(0, boundaries.length - 1));
+    }
+
+    public int getSkippedRows() {
+        return skippedRows.get();
+    }
+
+    private static int[] findLineBoundaries(ByteBuffer data, int chunkCount) {
+        int start = data.position();
+        int end = data.limit();
+        int[] result = new int[chunkCount + 1];
+        result[0] = start;
+        for (int i = 1; i < chunkCount; i++) {
+            int target = start + (int) ((long) (end - start) * i / chunkCount);
+            if (target < result[i - 1]) {
+                target = result[i - 1];
+            }
+            while (target < end && data.get(target) != '\n') {
+                target++;
+            }
+            if (target < end) {
+                target++;
+            }
+            result[i] = target;
+        }
+        result[chunkCount] = end;
+        return result;
+    }
+
+    private class ChunkTask extends RecursiveTask<HashMap<String, T>> {
+        private static final long serialVersionUID = 1L;
+
+        private final int fromChunk;
+        private final int toChunk;
+
+        ChunkTask(int fromChunk, int toChunk) {
+            this.fromChunk = fromChunk;
+            this.toChunk = toChunk;
+        }
+
+        @Override
+        protected HashMap<String, T> compute() {
+            if (streamReader != null) {
+                HashMap<String, T> result = new HashMap<>();
+                skippedRows.addAndGet(parser.parseRows(streamReader, result));
+                return result;
+            }
+            if (toChunk - fromChunk <= 1) {
+                ByteBuffer slice = data.duplicate();
+                slice.limit(boundaries[toChunk]);
+                slice.position(boundaries[fromChunk]);
+                HashMap<String, T> result = new HashMap<>();
+                skippedRows.addAndGet(parser.parseRows(new MappedCsvReader(slice), result));
+                return result;
+            }
+            int middle = (fromChunk + toChunk) / 2;
+            ChunkTask left = new ChunkTask(fromChunk, middle);
+            ChunkTask right = new ChunkTask(middle, toChunk);
+            right.fork();
+            HashMap<String, T> result = left.compute();
+            result.putAll(right.join());
+            return result;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+import java.util.Random;
+
+/**
+ * PasswordBenchmark类：测量 PasswordUtil 的性能
+ * 模拟批量加载（对每一行保存的哈希调用 ensureHashed）、登录（verify）和注册（hash），
+ * 输出每次调用的平均耗时和分配的字节数。
+ *
+ * 用法：java PasswordBenchmark [行数，默认200000] [轮数，默认5]
+ */
+public class PasswordBenchmark {
+    private interface Workload {
+        /**
+         * @return 任意结果，防止 JIT 把调用消除
+         */
+        int run(int index);
+    }
+
+    public static void main(String[] args) {
+        int rows = 200000;
+        int rounds = 5;
+        if (args.length > 0) {
+            rows = Integer.parseInt(args[0]);
+        }
+        if (args.length > 1) {
+            rounds = Integer.parseInt(args[1]);
+        }
+
+        Random random = new Random(42);
+        final String[] passwords = new String[rows];
+        final String[] storedHashes = new String[rows];
+        for (int i = 0; i < rows; i++) {
+            StringBuilder password = new StringBuilder();
+            int length = 6 + random.nextInt(10);
+            for (int j = 0; j < length; j++) {
+                password.append((char) ('a' + random.nextInt(26)));
+            }
+            passwords[i] = password.toString();
+            storedHashes[i] = PasswordUtil.hash(passwords[i]);
+        }
+
+        System.out.println(String.format("%-22s %12s %12s %12s", "workload", "ns/op", "bytes/op", "checksum"));
+        report("load (ensureHashed)", rows, rounds, new Workload() {
+            @Override
+            public int run(int index) {
+                return PasswordUtil.ensureHashed(storedHashes[index]).length();
+            }
+        });
+        report("login (verify)", rows, rounds, new Workload() {
+            @Override
+            public int run(int index) {
+                if (PasswordUtil.verify(passwords[index], storedHashes[index])) {
+                    return 1;
+                }
+                return 0;
+            }
+        });
+        report("register (hash)", rows, rounds, new Workload() {
+            @Override
+            public int run(int index) {
+                return PasswordUtil.hash(passwords[index]).length();
+            }
+        });
+    }
+
+    private static void report(String name, int rows, int rounds, Workload workload) {
+        long[] result = measure(workload, rows, rounds);
+        String bytes = "n/a";
+        if (result[1] >= 0) {
+            bytes = String.valueOf(result[1] / rows);
+        }
+        System.out.println(String.format("%-22s %12.1f %12s %12d", name, (double) result[0] / rows, bytes, result[2]));
+    }
+
+    /**
+     * 先预热一轮，再取多轮中最快的一轮
+     * @return 耗时（纳秒）、分配的字节数（不支持时为-1）和全部调用结果之和（使结果被使用，防止 JIT 把调用消除）
+     */
+    private static long[] measure(Workload workload, int rows, int rounds) {
+        int sink = 0;
+        for (int i = 0; i < rows; i++) {
+            sink += workload.run(i);
+        }
+        long best = Long.MAX_VALUE;
+        long allocated = -1;
+        for (int round = 0; round < rounds; round++) {
+            long allocatedBefore = AllocationCounter.currentThreadBytes();
+            long start = System.nanoTime();
+            for (int i = 0; i < rows; i++) {
+                sink += workload.run(i);
+            }
+            long elapsed = System.nanoTime() - start;
+            if (elapsed < best) {
+                best = elapsed;
+                if (allocatedBefore >= 0) {
+                    allocated = AllocationCounter.currentThreadBytes() - allocatedBefore;
+                }
+            }
+        }
+        return new long[] {best, allocated, sink};
+    }
+}
@@ -1,39 +1,64 @@
 public final class PasswordUtil {
+    private static final String SEED = "CPT111";
+    private static final char[] HEX = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+
     private PasswordUtil() {}
 
     public static String hash(String rawPassword) {
-        if (rawPassword == null) {
-            throw new IllegalArgumentException("Password cannot be null");
-        }
-        String prepared = rawPassword.trim();
-        if (prepared.isEmpty()) {
-            prepared = "default";
-        }
-        String seed = "CPT111";
-        String result = "";
-        int maxLength = prepared.length() + seed.length();
+        String prepared = prepare(rawPassword);
+        int maxLength = prepared.length() + SEED.length();
+        // 直接写入预先分配好长度的字符数组，不产生中间字符串
+        char[] result = new char[maxLength * 2];
         for (int i = 0; i < maxLength; i++) {
-            char fromPassword = prepared.charAt(i % prepared.length());
-            char fromSeed = seed.charAt(i % seed.length());
-            int combined = (fromPassword + fromSeed + i * 7) % 256;
-            result = result + toTwoDigitHex(combined);
+            int combined = combine(prepared, i);
+            result[i * 2] = HEX[combined >>> 4];
+            result[i * 2 + 1] = HEX[combined & 0xF];
         }
-        return result;
+        return new String(result);
     }
 
+    /**
+     * 逐字节计算哈希并与保存的哈希比较，不创建哈希字符串；
+     * 无论在哪一位不同都会比较完全部字符，耗时不泄露匹配的长度
+     */
     public static boolean verify(String rawPassword, String storedHash) {
         if (storedHash == null || storedHash.isEmpty()) {
             return false;
         }
-        return hash(rawPassword).equalsIgnoreCase(storedHash);
+        String prepared = prepare(rawPassword);
+        int maxLength = prepared.length() + SEED.length();
+        int storedLength = storedHash.length();
+        int difference = storedLength ^ (maxLength * 2);
+        for (int i = 0; i < maxLength; i++) {
+            int combined = combine(prepared, i);
+            difference |= HEX[combined >>> 4] ^ toLowerHex(storedHash.charAt((i * 2) % storedLength));
+            difference |= HEX[combined & 0xF] ^ toLowerHex(storedHash.charAt((i * 2 + 1) % storedLength));
+        }
+        return difference == 0;
     }
 
+    /**
+     * 16-64 位十六进制字符，手写检查代替每次编译正则表达式
+     */
     public static boolean isHash(String value) {
-        return value != null && value.matches("^[a-fA-F0-9]{16,64}$");
+        if (value == null || value.length() < 16 || value.length() > 64) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            boolean digit = c >= '0' && c <= '9';
+            boolean lower = c >= 'a' && c <= 'f';
+            boolean upper = c >= 'A' && c <= 'F';
+            if (!digit && !lower && !upper) {
+                return false;
+            }
+        }
+        return true;
     }
 
     public static String ensureHashed(String value) {
         if (isHash(value)) {
+            // 已经是小写时 toLowerCase 直接返回原字符串
             return value.toLowerCase();
         }
         String valueToHash;
@@ -45,19 +70,27 @@ public final class PasswordUtil {
         return hash(valueToHash);
     }
 
-    private static String toTwoDigitHex(int value) {
-        int positive = value;
-        if (positive < 0) {
-            positive = 256 + positive;
+    private static String prepare(String rawPassword) {
+        if (rawPassword == null) {
+            throw new IllegalArgumentException("Password cannot be null");
         }
-        int high = positive / 16;
-        int low = positive % 16;
-        return toHexChar(high) + toHexChar(low);
+        String prepared = rawPassword.trim();
+        if (prepared.isEmpty()) {
+            prepared = "default";
+        }
+        return prepared;
     }
 
-    private static String toHexChar(int value) {
-        String symbols = "0123456789abcdef";
-        return symbols.substring(value, value + 1);
+    private static int combine(String prepared, int i) {
+        char fromPassword = prepared.charAt(i % prepared.length());
+        char fromSeed = SEED.charAt(i % SEED.length());
+        return (fromPassword + fromSeed + i * 7) % 256;
     }
-}
 
+    private static char toLowerHex(char c) {
+        if (c >= 'A' && c <= 'F') {
+            return (char) (c + ('a' - 'A'));
+        }
+        return c;
+    }
+}
@@ -0,0 +1,159 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PersistenceScheduler类：后台合并写入用户修改
+ * 界面线程只把修改记录放进内存队列并立即返回，
+ * 后台线程每隔一段时间把队列中的所有记录一次性写入日志（一次 fsync），
+ * 退出时刷新剩余记录。界面线程不会等待磁盘。
+ * 后台线程是守护线程，因此另外注册一个 JVM 关闭钩子，Ctrl-C 或 SIGTERM 时也会写入队列中的记录。
+ */
+public class PersistenceScheduler {
+    private static final long DEFAULT_INTERVAL_MILLIS = 500;
+
+    private final UserRepository repository;
+    private final HashMap<String, User> users;
+    private final ScheduledExecutorService executor;
+    private final long intervalMillis;
+    private final Thread shutdownHook;
+    // 保证各批记录按顺序写入（后台线程、关闭钩子和界面线程都可能调用 flush）
+    private final Object flushLock = new Object();
+    private List<String[]> pending = new ArrayList<>();
+    private IOException lastError;
+
+    public PersistenceScheduler(UserRepository repository, HashMap<String, User> users) {
+        this(repository, users, DEFAULT_INTERVAL_MILLIS);
+    }
+
+    /**
+     * 构造函数
+     * @param repository 负责实际写入的用户存储
+     * @param users 全部用户，退出时交给 repository.close
+     * @param intervalMillis 两次写入之间的间隔，期间的修改合并为一次写入
+     */
+    public PersistenceScheduler(UserRepository repository, HashMap<String, User> users, long intervalMillis) {
+        this.repository = repository;
+        this.users = users;
+        this.intervalMillis = intervalMillis;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "users-persistence");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.shutdownHook = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, "users-persistence-shutdown");
+    }
+
+    /**
+     * 启动后台写入，并注册关闭钩子
+     */
+    public void start() {
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 标记用户被修改：记录在调用线程上生成，写入交给后台线程
+     * @param operation UserJournal 中定义的操作类型
+     * @param user 被修改的用户
+     * @param values 操作参数
+     */
+    public void markDirty(String operation, User user, String... values) {
+        String[] record = repository.prepareChange(operation, user, values);
+        synchronized (this) {
+            pending.add(record);
+        }
+    }
+
+    public void markNewUser(User user) {
+        markDirty(UserJournal.USER_CREATE, user, user.getPasswordHash(), user.getRole());
+    }
+
+    /**
+     * 批量修改观看列表后调用一次，用一条记录保存整个观看列表
+     */
+    public void markWatchlistChanged(User user) {
+        markDirty(UserJournal.WATCHLIST_SET, user, user.getWatchlist().toString());
+    }
+
+    public void markPasswordChanged(User user) {
+        markDirty(UserJournal.PASSWORD, user, user.getPasswordHash());
+    }
+
+    /**
+     * 把队列中的所有记录一次性写入
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            List<String[]> batch;
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = pending;
+                pending = new ArrayList<>();
+            }
+            try {
+                repository.appendChanges(batch);
+            } catch (IOException e) {
+                synchronized (this) {
+                    // 写入失败的记录放回队列头部，下个周期重试
+                    batch.addAll(pending);
+                    pending = batch;
+                    lastError = e;
+                }
+            }
+        }
+    }
+
+    /**
+     * 取出并清除最近一次后台写入错误，供界面显示
+     * @return 没有错误时返回null
+     */
+    public synchronized IOException takeLastError() {
+        IOException error = lastError;
+        lastError = null;
+        return error;
+    }
+
+    /**
+     * 停止后台线程并移除关闭钩子，写入剩余记录，然后关闭用户存储（CSV存储会写出完整快照）
+     */
+    public void shutdown() throws IOException {
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            // JVM 已经在关闭，钩子会自行写入剩余记录
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(intervalMillis * 10, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        IOException error = takeLastError();
+        if (error != null) {
+            throw error;
+        }
+        repository.close(users);
+    }
+}
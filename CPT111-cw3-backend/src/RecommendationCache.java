@@ -0,0 +1,91 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * RecommendationCache类：按用户缓存推荐结果（每个用户保存最近一次请求的策略和数量），超过容量时淘汰最久未使用的用户
+ * 每个缓存项记录计算时 Watchlist / History 的对象和版本号，
+ * 任何一个发生变化（包括按需加载的用户被重新解析）该项即失效；目录重新加载时调用 invalidateAll。
+ */
+public class RecommendationCache {
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final LinkedHashMap<String, Entry> entries;
+    private long hits;
+    private long misses;
+
+    private static class Entry {
+        private final Watchlist watchlist;
+        private final int watchlistVersion;
+        private final History history;
+        private final int historyVersion;
+        private final int requestedNumber;
+        private final String strategyName;
+        private final ArrayList<Movie> recommendations;
+
+        Entry(User user, int requestedNumber, String strategyName, ArrayList<Movie> recommendations) {
+            this.watchlist = user.getWatchlist();
+            this.watchlistVersion = watchlist.getVersion();
+            this.history = user.getHistory();
+            this.historyVersion = history.getVersion();
+            this.requestedNumber = requestedNumber;
+            this.strategyName = strategyName;
+            this.recommendations = recommendations;
+        }
+
+        boolean matches(User user, int requestedNumber, String strategyName) {
+            return this.requestedNumber == requestedNumber && this.strategyName.equals(strategyName)
+                    && watchlist == user.getWatchlist() && watchlistVersion == watchlist.getVersion()
+                    && history == user.getHistory() && historyVersion == history.getVersion();
+        }
+    }
+
+    public RecommendationCache(final int capacity) {
+        // accessOrder 为 true 时迭代顺序就是最近使用顺序，最旧的项在最前面
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * 查找仍然有效的缓存结果
+     * @return 返回副本；没有或已过期时返回null
+     */
+    public synchronized ArrayList<Movie> get(User user, int requestedNumber, String strategyName) {
+        Entry entry = entries.get(user.getUsername());
+        if (entry == null || !entry.matches(user, requestedNumber, strategyName)) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return new ArrayList<>(entry.recommendations);
+    }
+
+    public synchronized void put(User user, int requestedNumber, String strategyName,
+                                 ArrayList<Movie> recommendations) {
+        entries.put(user.getUsername(),
+                new Entry(user, requestedNumber, strategyName, new ArrayList<>(recommendations)));
+    }
+
+    /**
+     * 丢弃所有缓存结果，例如目录重新加载之后
+     */
+    public synchronized void invalidateAll() {
+        entries.clear();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+}
@@ -1,115 +1,606 @@
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class RecommendationEngine {
-    private final HashMap<String, Movie> movies;
+    public static final String GENRE = "genre";
+    public static final String WEIGHTED = "weighted";
+    public static final String COLLABORATIVE = "collaborative";
+    public static final String RECENT = "recent";
+
+    // 加权评分中各部分的权重：类型偏好、电影评分、与平均观看年份的接近程度
+    private static final double GENRE_WEIGHT = 0.6;
+    private static final double RATING_WEIGHT = 0.3;
+    private static final double YEAR_WEIGHT = 0.1;
+    private static final double YEAR_SCALE = 10.0;
+
+    private static final Comparator<ScoredMovie> LOWEST_FIRST = new Comparator<ScoredMovie>() {
+        @Override
+        public int compare(ScoredMovie a, ScoredMovie b) {
+            int byScore = Double.compare(a.score, b.score);
+            if (byScore != 0) {
+                return byScore;
+            }
+            // 分数相同时ID较大的排在前面（先被淘汰），结果与遍历顺序无关
+            return b.movie.getId().compareTo(a.movie.getId());
+        }
+    };
+
+    // 当前的目录快照：读者无锁取出后在整个调用中使用同一个快照，写者建好新快照后原子替换
+    private final AtomicReference<MovieCatalog> catalog;
+    private final CoWatchModel coWatchModel;
+    private volatile HashMap<String, ArrayList<String>> precomputed;
+    private final RecommendationCache cache = new RecommendationCache(RecommendationCache.DEFAULT_CAPACITY);
+    private final LinkedHashMap<String, RecommendationStrategy> strategies = new LinkedHashMap<>();
+    private final HashMap<String, String> roleStrategies = new HashMap<>();
+    private String defaultStrategy = GENRE;
+    private volatile double halfLifeDays = TasteProfile.DEFAULT_HALF_LIFE_DAYS;
 
     public RecommendationEngine(HashMap<String, Movie> movies) {
-        this.movies = movies;
+        this(movies, new ArrayList<User>());
     }
 
-    public ArrayList<Movie> getRecommendations(User user, int requestedNumber) {
-        int limit = requestedNumber;
-        if (limit < 1) {
-            limit = 1;
+    /**
+     * 构造函数
+     * @param movies 全部电影，会被复制到不可变的目录快照中
+     * @param users 全部用户，用来并行建立共同观看模型，之后模型随观看记录增量更新
+     */
+    public RecommendationEngine(HashMap<String, Movie> movies, Collection<User> users) {
+        this(movies, CoWatchModel.build(users, CoWatchModel.DEFAULT_NEIGHBORS,
+                Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * 构造函数
+     * @param movies 全部电影，会被复制到不可变的目录快照中
+     * @param users 全部用户；按需加载的用户映射（LazyUserMap）从原始行建立共同观看模型，不会加载全部用户
+     */
+    public RecommendationEngine(HashMap<String, Movie> movies, Map<String, User> users) {
+        this(movies, buildCoWatchModel(users));
+    }
+
+    private RecommendationEngine(HashMap<String, Movie> movies, CoWatchModel coWatchModel) {
+        this.catalog = new AtomicReference<>(new MovieCatalog(movies, SimilarMovieIndex.DEFAULT_TABLES,
+                SimilarMovieIndex.DEFAULT_BITS, 1L));
+        this.coWatchModel = coWatchModel;
+        registerBuiltInStrategies();
+    }
+
+    private static CoWatchModel buildCoWatchModel(Map<String, User> users) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        if (users instanceof LazyUserMap) {
+            return CoWatchModel.build((LazyUserMap) users, CoWatchModel.DEFAULT_NEIGHBORS, threads);
         }
-        int roleLimit = user.getRecommendationLimit();
-        if (limit > roleLimit) {
-            limit = roleLimit;
+        return CoWatchModel.build(users.values(), CoWatchModel.DEFAULT_NEIGHBORS, threads);
+    }
+
+    private void registerBuiltInStrategies() {
+        registerStrategy(new RecommendationStrategy() {
+            @Override
+            public String getName() {
+                return GENRE;
+            }
+
+            @Override
+            public String getDescription() {
+                return "Genre-Based Recommendation";
+            }
+
+            @Override
+            public boolean isCacheable() {
+                return true;
+            }
+
+            @Override
+            public ArrayList<Movie> recommend(User user, int limit) {
+                return getGenreRecommendations(user, limit);
+            }
+        });
+        registerStrategy(new RecommendationStrategy() {
+            @Override
+            public String getName() {
+                return WEIGHTED;
+            }
+
+            @Override
+            public String getDescription() {
+                return "Weighted Multi-Genre Recommendation";
+            }
+
+            @Override
+            public boolean isCacheable() {
+                return true;
+            }
+
+            @Override
+            public ArrayList<Movie> recommend(User user, int limit) {
+                return getWeightedRecommendations(user, limit);
+            }
+        });
+        registerStrategy(new RecommendationStrategy() {
+            @Override
+            public String getName() {
+                return COLLABORATIVE;
+            }
+
+            @Override
+            public String getDescription() {
+                return "Co-Watch Collaborative Filtering";
+            }
+
+            @Override
+            public boolean isCacheable() {
+                // 其他用户的观看记录也会改变结果
+                return false;
+            }
+
+            @Override
+            public ArrayList<Movie> recommend(User user, int limit) {
+                return getCollaborativeRecommendations(user, limit);
+            }
+        });
+        registerStrategy(new RecommendationStrategy() {
+            @Override
+            public String getName() {
+                return RECENT;
+            }
+
+            @Override
+            public String getDescription() {
+                return "Recency-Weighted Recommendation";
+            }
+
+            @Override
+            public boolean isCacheable() {
+                return true;
+            }
+
+            @Override
+            public ArrayList<Movie> recommend(User user, int limit) {
+                return getRecentRecommendations(user, limit);
+            }
+        });
+    }
+
+    /**
+     * 注册策略，同名策略会被替换
+     */
+    public synchronized void registerStrategy(RecommendationStrategy strategy) {
+        strategies.put(strategy.getName(), strategy);
+        cache.invalidateAll();
+    }
+
+    /**
+     * 按名称查找策略
+     * @throws IllegalArgumentException 没有该名称的策略时
+     */
+    public synchronized RecommendationStrategy getStrategy(String name) {
+        RecommendationStrategy strategy = strategies.get(name);
+        if (strategy == null) {
+            throw new IllegalArgumentException("Unknown recommendation strategy: " + name
+                    + " (available: " + strategies.keySet() + ")");
         }
+        return strategy;
+    }
 
-        ArrayList<Movie> result = new ArrayList<>();
-        
-        // 获取用户的类型统计
-        HashMap<String, Integer> genreCounts = user.getHistory().getGenreCounts(movies);
-        
-        // 找到用户观看最多的类型
-        String favoriteGenre = null;
-        int maxCount = 0;
-        if (!genreCounts.isEmpty()) {
-            for (String genre : genreCounts.keySet()) {
-                int count = genreCounts.get(genre);
-                if (count > maxCount) {
-                    maxCount = count;
-                    favoriteGenre = genre;
-                }
+    /**
+     * 所有已注册的策略，按注册顺序
+     */
+    public synchronized ArrayList<RecommendationStrategy> getStrategies() {
+        return new ArrayList<>(strategies.values());
+    }
+
+    /**
+     * 设置没有单独配置的角色使用的策略
+     */
+    public synchronized void setDefaultStrategy(String name) {
+        getStrategy(name);
+        this.defaultStrategy = name;
+    }
+
+    /**
+     * 为某个用户角色（UserRole）指定策略
+     */
+    public synchronized void setStrategyForRole(String role, String name) {
+        getStrategy(name);
+        roleStrategies.put(UserRole.fromString(role), name);
+    }
+
+    /**
+     * 用户角色对应的策略
+     */
+    public synchronized RecommendationStrategy getStrategyFor(User user) {
+        String name = roleStrategies.get(UserRole.fromString(user.getRole()));
+        if (name == null) {
+            name = defaultStrategy;
+        }
+        return getStrategy(name);
+    }
+
+    /**
+     * 使用批量任务预先算好的推荐（BatchRecommendationJob.readResults），null 表示不使用
+     */
+    public void setPrecomputed(HashMap<String, ArrayList<String>> precomputed) {
+        this.precomputed = precomputed;
+        cache.invalidateAll();
+    }
+
+    /**
+     * 重新建立相似电影索引：哈希表越多召回率越高、越慢，哈希位数越多越快、召回率越低
+     */
+    public void configureSimilarIndex(int tables, int bits) {
+        while (true) {
+            MovieCatalog current = catalog.get();
+            if (catalog.compareAndSet(current, current.withSimilarIndex(tables, bits))) {
+                return;
             }
         }
+    }
 
-        // 如果有最喜欢的类型，优先推荐该类型的电影
-        if (favoriteGenre != null) {
-            for (Movie movie : movies.values()) {
-                if (result.size() >= limit) {
+    public SimilarMovieIndex getSimilarIndex() {
+        return catalog.get().getSimilarIndex();
+    }
+
+    /**
+     * 启用或关闭列式目录：启用后加权和近期加权推荐直接扫描 MovieTable 的基本类型数组，
+     * 只有进入前K名的电影才取出 Movie 对象。评分按 float 保存，分数与按 Movie 计算的可能相差约 1e-8
+     */
+    public void setColumnarCatalog(boolean columnar) {
+        while (true) {
+            MovieCatalog current = catalog.get();
+            if (catalog.compareAndSet(current, current.withColumnarTable(columnar))) {
+                cache.invalidateAll();
+                return;
+            }
+        }
+    }
+
+    /**
+     * 当前的目录快照（不可变），可以在任意线程中无锁读取
+     */
+    public MovieCatalog getCatalog() {
+        return catalog.get();
+    }
+
+    /**
+     * 换成另一批电影：在调用线程中建好新快照（电影表和全部索引）后原子替换，
+     * 正在计算的推荐继续使用旧快照，之后的请求使用新快照；缓存的推荐全部作废
+     * @param movies 新的全部电影，会被复制
+     * @return 新快照
+     */
+    public MovieCatalog replaceCatalog(HashMap<String, Movie> movies) {
+        while (true) {
+            MovieCatalog current = catalog.get();
+            MovieCatalog replacement = current.withMovies(movies);
+            if (catalog.compareAndSet(current, replacement)) {
+                cache.invalidateAll();
+                return replacement;
+            }
+        }
+    }
+
+    /**
+     * 与某部电影相似的电影（"更多类似的"），局部敏感哈希的候选不足时用同类型评分最高的电影补足
+     * @return 电影不存在时返回空列表
+     */
+    public ArrayList<Movie> getSimilarMovies(String movieId, int requestedNumber) {
+        MovieCatalog snapshot = catalog.get();
+        Movie movie = snapshot.getMovie(movieId);
+        if (movie == null || requestedNumber <= 0) {
+            return new ArrayList<>();
+        }
+        ArrayList<Movie> result = snapshot.getSimilarIndex().findSimilar(movieId, requestedNumber);
+        if (result.size() < requestedNumber) {
+            HashSet<Movie> chosen = new HashSet<>(result);
+            chosen.add(movie);
+            for (Movie candidate : snapshot.getIndex().byGenre(movie.getGenre())) {
+                if (result.size() >= requestedNumber) {
                     break;
                 }
-                if (movie == null) {
-                    continue;
+                if (chosen.add(candidate)) {
+                    result.add(candidate);
                 }
-                if (user.getHistory().contains(movie.getId())) {
-                    continue;
-                }
-                if (user.getWatchlist().contains(movie.getId())) {
-                    continue;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 近期偏好的半衰期：观看记录的类型权重每经过这么多天减半
+     */
+    public void setHalfLifeDays(double halfLifeDays) {
+        if (halfLifeDays <= 0) {
+            throw new IllegalArgumentException("Half-life must be positive: " + halfLifeDays);
+        }
+        this.halfLifeDays = halfLifeDays;
+        cache.invalidateAll();
+    }
+
+    public double getHalfLifeDays() {
+        return halfLifeDays;
+    }
+
+    /**
+     * 推荐结果缓存，可以查看命中和未命中次数
+     */
+    public RecommendationCache getCache() {
+        return cache;
+    }
+
+    /**
+     * 使用用户角色对应的策略获取推荐
+     */
+    public ArrayList<Movie> getRecommendations(User user, int requestedNumber) {
+        return getRecommendations(user, requestedNumber, getStrategyFor(user).getName());
+    }
+
+    /**
+     * 使用指定策略获取推荐：可缓存的策略在用户的待看列表和观看历史没有变化时直接返回缓存的结果；
+     * 角色对应的策略优先使用预计算的结果（去掉之后看过或加入待看列表的电影），数量不够时实时计算
+     * @param strategyName 已注册的策略名称
+     */
+    public ArrayList<Movie> getRecommendations(User user, int requestedNumber, String strategyName) {
+        RecommendationStrategy strategy = getStrategy(strategyName);
+        if (!strategy.isCacheable()) {
+            return loadRecommendations(user, requestedNumber, strategy);
+        }
+        ArrayList<Movie> cached = cache.get(user, requestedNumber, strategyName);
+        if (cached != null) {
+            return cached;
+        }
+        MovieCatalog snapshot = catalog.get();
+        ArrayList<Movie> result = loadRecommendations(user, requestedNumber, strategy);
+        cache.put(user, requestedNumber, strategyName, result);
+        // 计算期间目录被替换时，结果可能来自旧快照：替换方的清空可能早于这次放入，这里再清空一次
+        if (catalog.get() != snapshot) {
+            cache.invalidateAll();
+        }
+        return result;
+    }
+
+    private ArrayList<Movie> loadRecommendations(User user, int requestedNumber, RecommendationStrategy strategy) {
+        HashMap<String, ArrayList<String>> batch = precomputed;
+        // 批量任务按角色对应的策略计算，只有相同策略的请求才能使用其结果
+        if (batch != null && batch.containsKey(user.getUsername()) && strategy == getStrategyFor(user)) {
+            int limit = effectiveLimit(user, requestedNumber);
+            ArrayList<Movie> result = new ArrayList<>();
+            BitSet excluded = user.getExcludedMovies();
+            MovieCatalog snapshot = catalog.get();
+            for (String movieId : batch.get(user.getUsername())) {
+                if (result.size() >= limit) {
+                    break;
                 }
-                // 优先添加最喜欢的类型的电影
-                if (favoriteGenre.equals(movie.getGenre())) {
+                Movie movie = snapshot.getMovie(movieId);
+                if (movie != null && !excluded.get(movie.getHandle())) {
                     result.add(movie);
                 }
             }
+            if (result.size() >= limit) {
+                return result;
+            }
+        }
+        return strategy.recommend(user, effectiveLimit(user, requestedNumber));
+    }
+
+    /**
+     * 不经过缓存和预计算结果，直接用用户角色对应的策略计算推荐（批量任务使用）
+     */
+    public ArrayList<Movie> computeRecommendations(User user, int requestedNumber) {
+        return getStrategyFor(user).recommend(user, effectiveLimit(user, requestedNumber));
+    }
+
+    /**
+     * 基于类型的推荐：最喜欢的类型中评分最高的电影，不够时按分类补充
+     */
+    public ArrayList<Movie> getGenreRecommendations(User user, int requestedNumber) {
+        int limit = effectiveLimit(user, requestedNumber);
+
+        ArrayList<Movie> result = new ArrayList<>();
+        History history = user.getHistory();
+        // 看过的和待看列表中的电影合成一个位图，每个候选只需测试一位
+        BitSet excluded = user.getExcludedMovies();
+        MovieCatalog snapshot = catalog.get();
+        MovieIndex index = snapshot.getIndex();
+
+        // 用户观看最多的类型，直接从增量维护的口味统计中读取
+        TasteProfile profile = profileOf(history, snapshot);
+        String favoriteGenre = profile.getFavoriteGenre();
+        int favoriteGenreCode = StringDictionary.GENRES.find(favoriteGenre);
+
+        // 如果有最喜欢的类型，优先推荐该类型中评分最高的电影
+        if (favoriteGenre != null) {
+            addUnseen(index.byGenre(favoriteGenre), StringDictionary.NONE, excluded, limit, result);
         }
 
-        // 如果还没达到推荐数量，添加其他类型的电影
+        // 如果还没达到推荐数量，按分类补充其他类型的电影：先补用户最常看的分类。
+        // 最喜欢的类型已经遍历过，直接跳过，不需要再检查是否重复
         if (result.size() < limit) {
-            for (Movie movie : movies.values()) {
+            String favoriteCategory = profile.getFavoriteCategory();
+            if (favoriteCategory != null) {
+                addUnseen(index.byCategory(favoriteCategory), favoriteGenreCode, excluded, limit, result);
+            }
+            for (String category : index.getCategories()) {
                 if (result.size() >= limit) {
                     break;
                 }
-                if (movie == null) {
-                    continue;
-                }
-                if (user.getHistory().contains(movie.getId())) {
-                    continue;
-                }
-                if (user.getWatchlist().contains(movie.getId())) {
-                    continue;
-                }
-                // 如果不在结果中，则添加（避免重复添加最喜欢的类型）
-                boolean alreadyAdded = false;
-                for (Movie addedMovie : result) {
-                    if (addedMovie.getId().equals(movie.getId())) {
-                        alreadyAdded = true;
-                        break;
-                    }
-                }
-                if (!alreadyAdded) {
-                    result.add(movie);
+                if (!category.equals(favoriteCategory)) {
+                    addUnseen(index.byCategory(category), favoriteGenreCode, excluded, limit, result);
                 }
             }
         }
 
         // 如果还是没有结果，忽略待看列表限制
         if (result.isEmpty()) {
-            for (Movie movie : movies.values()) {
-                if (result.size() >= limit) {
-                    break;
-                }
-                if (movie == null) {
+            addUnseen(index.byRating(), StringDictionary.NONE, history.getMovieBits(), limit, result);
+        }
+
+        // 如果仍然没有结果，推荐所有电影
+        if (result.isEmpty()) {
+            addUnseen(index.byRating(), StringDictionary.NONE, null, limit, result);
+        }
+        return result;
+    }
+
+    /**
+     * 默认策略的显示名称
+     */
+    public synchronized String getStrategyName() {
+        return getStrategy(defaultStrategy).getDescription();
+    }
+
+    /**
+     * 用户角色对应策略的显示名称
+     */
+    public String getStrategyName(User user) {
+        return getStrategyFor(user).getDescription();
+    }
+
+    /**
+     * 加权多类型推荐：用户看过的每个类型按观看比例加权，再结合评分和与平均观看年份的接近程度打分，
+     * 用大小为K的最小堆保留分数最高的K部电影，复杂度 O(n log K)，不对全部电影排序
+     * @param user 当前用户，推荐数量同样受 User.getRecommendationLimit 限制
+     * @param requestedNumber 请求的推荐数量
+     */
+    public ArrayList<Movie> getWeightedRecommendations(User user, int requestedNumber) {
+        MovieCatalog snapshot = catalog.get();
+        TasteProfile profile = profileOf(user.getHistory(), snapshot);
+        return getTopScored(snapshot, user, requestedNumber, getGenreWeights(profile), profile.getAverageYear());
+    }
+
+    /**
+     * 近期加权推荐：与加权多类型推荐相同，但类型权重按观看日期指数衰减（见 setHalfLifeDays），
+     * 最近常看的类型比很久以前常看的类型更重要。权重随观看记录增量更新
+     * @param user 当前用户，推荐数量同样受 User.getRecommendationLimit 限制
+     * @param requestedNumber 请求的推荐数量
+     */
+    public ArrayList<Movie> getRecentRecommendations(User user, int requestedNumber) {
+        MovieCatalog snapshot = catalog.get();
+        TasteProfile profile = profileOf(user.getHistory(), snapshot);
+        double[] genreWeights = new double[StringDictionary.GENRES.size()];
+        for (int code = 0; code < genreWeights.length; code++) {
+            genreWeights[code] = profile.getRecentGenreWeight(code);
+        }
+        return getTopScored(snapshot, user, requestedNumber, genreWeights, profile.getAverageYear());
+    }
+
+    /**
+     * 用大小为K的最小堆保留分数最高的K部未看过的电影
+     */
+    private ArrayList<Movie> getTopScored(MovieCatalog snapshot, User user, int requestedNumber,
+                                          double[] genreWeights, double averageYear) {
+        int limit = effectiveLimit(user, requestedNumber);
+        BitSet excluded = user.getExcludedMovies();
+
+        PriorityQueue<ScoredMovie> best = new PriorityQueue<>(limit + 1, LOWEST_FIRST);
+        MovieTable table = snapshot.getTable();
+        if (table != null) {
+            scoreRows(snapshot, table, excluded, genreWeights, averageYear, limit, best);
+        } else {
+            for (Movie movie : snapshot.getIndex().byRating()) {
+                if (excluded.get(movie.getHandle())) {
                     continue;
                 }
-                if (user.getHistory().contains(movie.getId())) {
+                double score = score(movie, genreWeights, averageYear);
+                if (best.size() < limit) {
+                    best.add(new ScoredMovie(movie, score));
                     continue;
                 }
-                result.add(movie);
+                // 只有比堆顶（当前第K名）更好的电影才进入堆，其余候选不产生对象
+                ScoredMovie lowest = best.peek();
+                if (score > lowest.score
+                        || (score == lowest.score && movie.getId().compareTo(lowest.movie.getId()) < 0)) {
+                    best.poll();
+                    best.add(new ScoredMovie(movie, score));
+                }
             }
         }
 
-        // 如果仍然没有结果，推荐所有电影
-        if (result.isEmpty()) {
-            for (Movie movie : movies.values()) {
+        if (best.isEmpty()) {
+            // 所有电影都看过或在待看列表中，使用基于类型的策略的兜底规则
+            return getGenreRecommendations(user, requestedNumber);
+        }
+        ArrayList<Movie> result = new ArrayList<>(best.size());
+        while (!best.isEmpty()) {
+            result.add(best.poll().movie);
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    /**
+     * 列式扫描：只读取电影编号、类型编号、评分和年份数组，进入堆的行才从快照中取出 Movie 对象
+     */
+    private static void scoreRows(MovieCatalog snapshot, MovieTable table, BitSet excluded, double[] genreWeights,
+                                  double averageYear, int limit, PriorityQueue<ScoredMovie> best) {
+        for (int row = 0; row < table.size(); row++) {
+            if (excluded.get(table.getHandle(row))) {
+                continue;
+            }
+            double score = score(table.getGenreCode(row), table.getRating(row), table.getYear(row),
+                    genreWeights, averageYear);
+            if (best.size() < limit) {
+                best.add(new ScoredMovie(snapshot.getMovie(table.getId(row)), score));
+                continue;
+            }
+            ScoredMovie lowest = best.peek();
+            if (score > lowest.score
+                    || (score == lowest.score && table.getId(row).compareTo(lowest.movie.getId()) < 0)) {
+                best.poll();
+                best.add(new ScoredMovie(snapshot.getMovie(table.getId(row)), score));
+            }
+        }
+    }
+
+    /**
+     * 协同过滤推荐：看过相同电影的其他用户还看了什么。
+     * 只遍历用户看过的每部电影的前M个邻居，代价为 O(历史长度 × M)，与目录大小无关；
+     * 邻居不够时用加权推荐补足
+     * @param user 当前用户，推荐数量同样受 User.getRecommendationLimit 限制
+     * @param requestedNumber 请求的推荐数量
+     */
+    public ArrayList<Movie> getCollaborativeRecommendations(User user, int requestedNumber) {
+        int limit = effectiveLimit(user, requestedNumber);
+
+        coWatchModel.track(user);
+        Watchlist watchlist = user.getWatchlist();
+        HashMap<Integer, Integer> scores = coWatchModel.scoreNeighbors(user.getHistory().getMovieHandles());
+
+        MovieCatalog snapshot = catalog.get();
+        PriorityQueue<ScoredMovie> best = new PriorityQueue<>(limit + 1, LOWEST_FIRST);
+        for (Integer handle : scores.keySet()) {
+            Movie movie = snapshot.getMovie(StringDictionary.MOVIE_IDS.decode(handle));
+            if (movie == null || watchlist.containsHandle(handle)) {
+                continue;
+            }
+            ScoredMovie candidate = new ScoredMovie(movie, scores.get(handle));
+            if (best.size() < limit) {
+                best.add(candidate);
+            } else if (LOWEST_FIRST.compare(candidate, best.peek()) > 0) {
+                best.poll();
+                best.add(candidate);
+            }
+        }
+
+        ArrayList<Movie> result = new ArrayList<>(limit);
+        while (!best.isEmpty()) {
+            result.add(best.poll().movie);
+        }
+        Collections.reverse(result);
+        if (result.size() < limit) {
+            for (Movie movie : getWeightedRecommendations(user, requestedNumber)) {
                 if (result.size() >= limit) {
                     break;
                 }
-                if (movie != null) {
+                if (!result.contains(movie)) {
                     result.add(movie);
                 }
             }
@@ -117,7 +608,89 @@ public class RecommendationEngine {
         return result;
     }
 
-    public String getStrategyName() {
-        return "Genre-Based Recommendation";
+    /**
+     * 每个类型的权重 = 该类型的观看次数 / 可识别的观看总数，按类型编号存放
+     */
+    private static double[] getGenreWeights(TasteProfile profile) {
+        double[] weights = new double[StringDictionary.GENRES.size()];
+        int total = profile.getMovieCount();
+        if (total == 0) {
+            return weights;
+        }
+        for (int code = 0; code < weights.length; code++) {
+            weights[code] = (double) profile.getGenreCount(code) / total;
+        }
+        return weights;
+    }
+
+    private static double score(Movie movie, double[] genreWeights, double averageYear) {
+        return score(movie.getGenreCode(), movie.getRating(), movie.getYear(), genreWeights, averageYear);
+    }
+
+    private static double score(int genreCode, double rating, int year, double[] genreWeights, double averageYear) {
+        double genreScore = 0;
+        if (genreCode >= 0 && genreCode < genreWeights.length) {
+            genreScore = genreWeights[genreCode];
+        }
+        double ratingScore = rating / 10.0;
+        double yearScore = 0;
+        if (averageYear > 0) {
+            yearScore = 1.0 / (1.0 + Math.abs(year - averageYear) / YEAR_SCALE);
+        }
+        return GENRE_WEIGHT * genreScore + RATING_WEIGHT * ratingScore + YEAR_WEIGHT * yearScore;
+    }
+
+    private static class ScoredMovie {
+        private final Movie movie;
+        private final double score;
+
+        ScoredMovie(Movie movie, double score) {
+            this.movie = movie;
+            this.score = score;
+        }
+    }
+
+    /**
+     * 请求数量至少为1，且不超过用户角色允许的推荐数量
+     */
+    private static int effectiveLimit(User user, int requestedNumber) {
+        int limit = requestedNumber;
+        if (limit < 1) {
+            limit = 1;
+        }
+        int roleLimit = user.getRecommendationLimit();
+        if (limit > roleLimit) {
+            limit = roleLimit;
+        }
+        return limit;
+    }
+
+    /**
+     * 按顺序遍历一个倒排列表，跳过看过的和待看列表中的电影，取够数量立即停止
+     * @param skipGenreCode 跳过该类型编号的电影，StringDictionary.NONE 表示不跳过
+     * @param excluded 要排除的电影编号，为null时不排除
+     */
+    private static void addUnseen(List<Movie> postings, int skipGenreCode, BitSet excluded,
+                                  int limit, ArrayList<Movie> result) {
+        for (Movie movie : postings) {
+            if (result.size() >= limit) {
+                return;
+            }
+            if (skipGenreCode != StringDictionary.NONE && movie.getGenreCode() == skipGenreCode) {
+                continue;
+            }
+            if (excluded != null && excluded.get(movie.getHandle())) {
+                continue;
+            }
+            result.add(movie);
+        }
+    }
+
+    /**
+     * 用户的口味统计：第一次使用时（或目录被替换后）关联目录快照并重建，之后随观看记录增量更新
+     */
+    private TasteProfile profileOf(History history, MovieCatalog snapshot) {
+        history.attachCatalog(snapshot.getMovies(), halfLifeDays);
+        return history.getProfile();
     }
 }
@@ -0,0 +1,30 @@
+import java.util.ArrayList;
+
+/**
+ * RecommendationStrategy接口：一种推荐算法
+ * 在 RecommendationEngine 中按名称注册，可以按用户角色或按请求选择。
+ */
+public interface RecommendationStrategy {
+    /**
+     * 注册和选择时使用的名称，例如 "genre"
+     */
+    String getName();
+
+    /**
+     * 显示给用户的名称
+     */
+    String getDescription();
+
+    /**
+     * 结果是否只取决于目录和该用户自己的待看列表、观看历史；
+     * 只有这样的策略才能使用按用户失效的推荐缓存
+     */
+    boolean isCacheable();
+
+    /**
+     * 计算推荐
+     * @param user 当前用户
+     * @param limit 推荐数量，已经按用户角色限制过
+     */
+    ArrayList<Movie> recommend(User user, int limit);
+}
@@ -0,0 +1,223 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * SimilarMovieIndex类：用局部敏感哈希（随机超平面 SimHash）查找相似电影
+ * 每部电影表示为特征向量：类型 one-hot、按目录最小/最大年份归一化的年份、评分/10、分类 one-hot，
+ * 向量减去目录均值后，用 bits 个随机超平面各取一位符号得到一个桶编号，共 tables 张哈希表。
+ * 查询时只取出同桶的候选电影，再按精确的余弦相似度排序，因此不需要扫描整个目录。
+ * tables 越多召回率越高、越慢；bits 越多桶越小、越快，但召回率下降。
+ * 目录加载后不再变化，索引在构造时一次建好，之后只读，可以被多个线程共享。
+ */
+public class SimilarMovieIndex {
+    public static final int DEFAULT_TABLES = 8;
+    public static final int DEFAULT_BITS = 8;
+
+    private final Movie[] movies;
+    private final HashMap<String, Integer> positions = new HashMap<>();
+    private final float[][] vectors;
+    private final float[][][] hyperplanes;
+    private final ArrayList<HashMap<Integer, ArrayList<Integer>>> tables = new ArrayList<>();
+    private final int genreCount;
+    private final int categoryCount;
+    private final int minYear;
+    private final int maxYear;
+
+    /**
+     * 构造函数
+     * @param catalog 全部电影
+     * @param tableCount 哈希表数量
+     * @param bits 每张表的哈希位数（1-30）
+     * @param seed 随机超平面的种子，相同种子得到相同的索引
+     */
+    public SimilarMovieIndex(Collection<Movie> catalog, int tableCount, int bits, long seed) {
+        ArrayList<Movie> list = new ArrayList<>(catalog.size());
+        int genres = 0;
+        int categories = 0;
+        int lowYear = Integer.MAX_VALUE;
+        int highYear = Integer.MIN_VALUE;
+        for (Movie movie : catalog) {
+            if (movie == null) {
+                continue;
+            }
+            list.add(movie);
+            genres = Math.max(genres, movie.getGenreCode() + 1);
+            categories = Math.max(categories, movie.getCategoryCode() + 1);
+            lowYear = Math.min(lowYear, movie.getYear());
+            highYear = Math.max(highYear, movie.getYear());
+        }
+        this.movies = list.toArray(new Movie[0]);
+        this.genreCount = genres;
+        this.categoryCount = categories;
+        this.minYear = lowYear;
+        this.maxYear = highYear;
+
+        int dimensions = genreCount + categoryCount + 2;
+        this.vectors = new float[movies.length][];
+        float[] mean = new float[dimensions];
+        for (int i = 0; i < movies.length; i++) {
+            positions.put(movies[i].getId(), i);
+            vectors[i] = features(movies[i], dimensions);
+            for (int d = 0; d < dimensions; d++) {
+                mean[d] += vectors[i][d] / movies.length;
+            }
+        }
+        for (float[] vector : vectors) {
+            for (int d = 0; d < dimensions; d++) {
+                vector[d] -= mean[d];
+            }
+        }
+
+        int tableTotal = Math.max(1, tableCount);
+        int bitTotal = Math.max(1, Math.min(bits, 30));
+        Random random = new Random(seed);
+        this.hyperplanes = new float[tableTotal][bitTotal][dimensions];
+        for (int t = 0; t < tableTotal; t++) {
+            for (int b = 0; b < bitTotal; b++) {
+                for (int d = 0; d < dimensions; d++) {
+                    hyperplanes[t][b][d] = (float) random.nextGaussian();
+                }
+            }
+            HashMap<Integer, ArrayList<Integer>> buckets = new HashMap<>();
+            for (int i = 0; i < movies.length; i++) {
+                int key = hash(t, vectors[i]);
+                ArrayList<Integer> bucket = buckets.get(key);
+                if (bucket == null) {
+                    bucket = new ArrayList<>();
+                    buckets.put(key, bucket);
+                }
+                bucket.add(i);
+            }
+            tables.add(buckets);
+        }
+    }
+
+    public int getTableCount() {
+        return hyperplanes.length;
+    }
+
+    public int getBits() {
+        return hyperplanes[0].length;
+    }
+
+    public int size() {
+        return movies.length;
+    }
+
+    /**
+     * 与某部电影最相似的电影，按余弦相似度从高到低，不含该电影本身
+     * @param movieId 电影ID
+     * @param limit 最多返回的数量
+     * @return 电影不存在时返回空列表；候选不足时可能少于 limit
+     */
+    public ArrayList<Movie> findSimilar(String movieId, int limit) {
+        Integer position = positions.get(movieId);
+        ArrayList<Movie> result = new ArrayList<>();
+        if (position == null || limit <= 0) {
+            return result;
+        }
+        final float[] query = vectors[position];
+        ArrayList<Integer> candidates = candidates(position);
+        final HashMap<Integer, Double> similarity = new HashMap<>();
+        for (Integer candidate : candidates) {
+            similarity.put(candidate, cosine(query, vectors[candidate]));
+        }
+        Collections.sort(candidates, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                int bySimilarity = Double.compare(similarity.get(b), similarity.get(a));
+                if (bySimilarity != 0) {
+                    return bySimilarity;
+                }
+                return movies[a].getId().compareTo(movies[b].getId());
+            }
+        });
+        for (int i = 0; i < candidates.size() && result.size() < limit; i++) {
+            result.add(movies[candidates.get(i)]);
+        }
+        return result;
+    }
+
+    /**
+     * 查询时需要精确比较的候选数量，用来观察参数对延迟的影响
+     */
+    public int candidateCount(String movieId) {
+        Integer position = positions.get(movieId);
+        if (position == null) {
+            return 0;
+        }
+        return candidates(position).size();
+    }
+
+    /**
+     * 所有哈希表中与该电影同桶的电影（去重，不含自身）
+     */
+    private ArrayList<Integer> candidates(int position) {
+        HashSet<Integer> seen = new HashSet<>();
+        seen.add(position);
+        ArrayList<Integer> candidates = new ArrayList<>();
+        for (int t = 0; t < tables.size(); t++) {
+            List<Integer> bucket = tables.get(t).get(hash(t, vectors[position]));
+            if (bucket == null) {
+                continue;
+            }
+            for (Integer candidate : bucket) {
+                if (seen.add(candidate)) {
+                    candidates.add(candidate);
+                }
+            }
+        }
+        return candidates;
+    }
+
+    private float[] features(Movie movie, int dimensions) {
+        float[] vector = new float[dimensions];
+        if (movie.getGenreCode() >= 0) {
+            vector[movie.getGenreCode()] = 1;
+        }
+        if (movie.getCategoryCode() >= 0) {
+            vector[genreCount + movie.getCategoryCode()] = 1;
+        }
+        if (maxYear > minYear) {
+            vector[genreCount + categoryCount] = (float) (movie.getYear() - minYear) / (maxYear - minYear);
+        }
+        vector[genreCount + categoryCount + 1] = (float) (movie.getRating() / 10.0);
+        return vector;
+    }
+
+    private int hash(int table, float[] vector) {
+        float[][] planes = hyperplanes[table];
+        int key = 0;
+        for (int b = 0; b < planes.length; b++) {
+            float dot = 0;
+            for (int d = 0; d < vector.length; d++) {
+                dot += planes[b][d] * vector[d];
+            }
+            if (dot >= 0) {
+                key |= 1 << b;
+            }
+        }
+        return key;
+    }
+
+    private static double cosine(float[] a, float[] b) {
+        double dot = 0;
+        double normA = 0;
+        double normB = 0;
+        for (int d = 0; d < a.length; d++) {
+            dot += a[d] * b[d];
+            normA += a[d] * a[d];
+            normB += b[d] * b[d];
+        }
+        if (normA == 0 || normB == 0) {
+            return 0;
+        }
+        return dot / Math.sqrt(normA * normB);
+    }
+}
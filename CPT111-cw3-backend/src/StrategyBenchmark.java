@@ -0,0 +1,165 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * StrategyBenchmark类：在同一批用户上依次运行所有已注册的推荐策略并比较
+ * 每个策略报告单次请求延迟的百分位数、每次请求分配的字节数（JVM支持时），
+ * 以及与基准策略结果的重合度（两次推荐共同包含的电影数 / 基准结果的数量）。
+ * 直接调用策略本身，不经过推荐缓存和预计算结果。
+ */
+public class StrategyBenchmark {
+    private final RecommendationEngine engine;
+    private final int warmupRounds;
+
+    /**
+     * 一个策略的测量结果
+     */
+    public static class Result {
+        private final String strategyName;
+        private final long[] latenciesNanos;
+        private final long allocatedBytes;
+        private final double overlap;
+
+        Result(String strategyName, long[] latenciesNanos, long allocatedBytes, double overlap) {
+            this.strategyName = strategyName;
+            this.latenciesNanos = latenciesNanos;
+            this.allocatedBytes = allocatedBytes;
+            this.overlap = overlap;
+        }
+
+        public String getStrategyName() {
+            return strategyName;
+        }
+
+        /**
+         * 延迟百分位数（微秒）
+         * @param percentile 0-100
+         */
+        public double getLatencyMicros(double percentile) {
+            if (latenciesNanos.length == 0) {
+                return 0;
+            }
+            int rank = (int) Math.ceil(percentile / 100.0 * latenciesNanos.length) - 1;
+            rank = Math.max(0, Math.min(rank, latenciesNanos.length - 1));
+            return latenciesNanos[rank] / 1000.0;
+        }
+
+        /**
+         * 每次请求平均分配的字节数，JVM不支持按线程统计时为-1
+         */
+        public long getBytesPerRequest() {
+            if (allocatedBytes < 0 || latenciesNanos.length == 0) {
+                return -1;
+            }
+            return allocatedBytes / latenciesNanos.length;
+        }
+
+        /**
+         * 与基准策略结果的平均重合度，0-1
+         */
+        public double getOverlap() {
+            return overlap;
+        }
+    }
+
+    public StrategyBenchmark(RecommendationEngine engine, int warmupRounds) {
+        this.engine = engine;
+        this.warmupRounds = Math.max(0, warmupRounds);
+    }
+
+    /**
+     * 运行所有策略
+     * @param users 参与测试的用户，每个策略使用相同的用户和顺序
+     * @param requestedNumber 每次请求的推荐数量（仍受用户角色限制）
+     * @param baseline 计算重合度时作为基准的策略名称
+     */
+    public List<Result> run(Collection<User> users, int requestedNumber, String baseline) {
+        ArrayList<User> userList = new ArrayList<>(users);
+        ArrayList<ArrayList<Movie>> baselineResults = new ArrayList<>();
+        RecommendationStrategy baselineStrategy = engine.getStrategy(baseline);
+        for (User user : userList) {
+            baselineResults.add(baselineStrategy.recommend(user, limitFor(user, requestedNumber)));
+        }
+
+        List<Result> results = new ArrayList<>();
+        for (RecommendationStrategy strategy : engine.getStrategies()) {
+            for (int round = 0; round < warmupRounds; round++) {
+                for (User user : userList) {
+                    strategy.recommend(user, limitFor(user, requestedNumber));
+                }
+            }
+            long[] latencies = new long[userList.size()];
+            List<ArrayList<Movie>> recommendations = new ArrayList<>(userList.size());
+            long allocatedBefore = AllocationCounter.currentThreadBytes();
+            for (int i = 0; i < userList.size(); i++) {
+                User user = userList.get(i);
+                long start = System.nanoTime();
+                recommendations.add(strategy.recommend(user, limitFor(user, requestedNumber)));
+                latencies[i] = System.nanoTime() - start;
+            }
+            long allocated = -1;
+            if (allocatedBefore >= 0) {
+                allocated = AllocationCounter.currentThreadBytes() - allocatedBefore;
+            }
+            // 重合度在计时和分配统计结束后单独计算，不计入 bytes/req
+            double overlapTotal = 0;
+            for (int i = 0; i < userList.size(); i++) {
+                overlapTotal += overlap(baselineResults.get(i), recommendations.get(i));
+            }
+            Arrays.sort(latencies);
+            double overlap = 0;
+            if (!userList.isEmpty()) {
+                overlap = overlapTotal / userList.size();
+            }
+            results.add(new Result(strategy.getName(), latencies, allocated, overlap));
+        }
+        return results;
+    }
+
+    /**
+     * 把结果格式化为表格
+     */
+    public static String format(List<Result> results, String baseline) {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("%-16s %10s %10s %10s %12s %10s%n",
+                "strategy", "p50 us", "p95 us", "p99 us", "bytes/req", "overlap"));
+        for (Result result : results) {
+            String bytes;
+            if (result.getBytesPerRequest() < 0) {
+                bytes = "n/a";
+            } else {
+                bytes = String.valueOf(result.getBytesPerRequest());
+            }
+            text.append(String.format("%-16s %10.1f %10.1f %10.1f %12s %9.0f%%%n",
+                    result.getStrategyName(),
+                    result.getLatencyMicros(50), result.getLatencyMicros(95), result.getLatencyMicros(99),
+                    bytes, result.getOverlap() * 100));
+        }
+        text.append("overlap = share of the ").append(baseline).append(" strategy's recommendations also returned");
+        return text.toString();
+    }
+
+    private static int limitFor(User user, int requestedNumber) {
+        return Math.max(1, Math.min(requestedNumber, user.getRecommendationLimit()));
+    }
+
+    private static double overlap(ArrayList<Movie> baseline, ArrayList<Movie> other) {
+        if (baseline.isEmpty()) {
+            if (other.isEmpty()) {
+                return 1;
+            }
+            return 0;
+        }
+        HashSet<Movie> expected = new HashSet<>(baseline);
+        int shared = 0;
+        for (Movie movie : other) {
+            if (expected.contains(movie)) {
+                shared++;
+            }
+        }
+        return (double) shared / baseline.size();
+    }
+}
@@ -0,0 +1,82 @@
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * StringDictionary类：把重复出现的字符串编码为从0开始的连续整数
+ * 类型、分类和电影ID在整个目录中只保存一份，Movie / Watchlist / History 内部只保存编号。
+ * 编码可以在并行加载的多个线程中同时进行；已存在的字符串查找不加锁。
+ */
+public class StringDictionary {
+    public static final StringDictionary GENRES = new StringDictionary();
+    public static final StringDictionary CATEGORIES = new StringDictionary();
+    public static final StringDictionary MOVIE_IDS = new StringDictionary();
+
+    /** null 的编号 */
+    public static final int NONE = -1;
+
+    private final ConcurrentHashMap<String, Integer> codes = new ConcurrentHashMap<>();
+    private volatile String[] values = new String[16];
+    private int size;
+
+    /**
+     * 获取字符串的编号，第一次出现时分配新编号
+     * @param value 字符串，null 返回 NONE
+     */
+    public int encode(String value) {
+        if (value == null) {
+            return NONE;
+        }
+        Integer code = codes.get(value);
+        if (code != null) {
+            return code;
+        }
+        synchronized (this) {
+            code = codes.get(value);
+            if (code != null) {
+                return code;
+            }
+            if (size == values.length) {
+                String[] grown = new String[size * 2];
+                System.arraycopy(values, 0, grown, 0, size);
+                values = grown;
+            }
+            // 先写数组再发布编号，其他线程拿到编号时一定能解码
+            values[size] = value;
+            codes.put(value, size);
+            size++;
+            return size - 1;
+        }
+    }
+
+    /**
+     * 查找已有编号，不分配新编号
+     * @return 字符串从未出现过时返回 NONE
+     */
+    public int find(String value) {
+        if (value == null) {
+            return NONE;
+        }
+        Integer code = codes.get(value);
+        if (code == null) {
+            return NONE;
+        }
+        return code;
+    }
+
+    /**
+     * 编号对应的字符串（所有使用者共享同一个实例）
+     * @return 编号为 NONE 时返回null
+     */
+    public String decode(int code) {
+        if (code == NONE) {
+            return null;
+        }
+        return values[code];
+    }
+
+    /**
+     * 已分配的编号数量，编号范围是 [0, size)
+     */
+    public synchronized int size() {
+        return size;
+    }
+}
@@ -0,0 +1,251 @@
+import java.util.HashMap;
+
+/**
+ * TasteProfile类：用户口味的汇总统计，由 History 维护
+ * 保存每个类型、分类的观看次数（按字典编号存放）、年份总和以及评分统计，
+ * 每新增一条观看记录的更新与类型数量成正比（复制一份统计再修改，写时复制），推荐时读取不需要遍历观看历史。
+ * 只统计目录中存在的电影。
+ *
+ * 近期偏好：每条记录的权重为 2^(-(最近观看日 - 观看日) / 半衰期)，按类型累加。
+ * 以用户自己最近的观看日为基准，出现更晚的记录时把已有权重整体乘以衰减系数（与类型数量成正比），
+ * 因此不依赖当前时间，也不会因为时间跨度大而溢出。日期无法解析的记录不计入近期偏好。
+ *
+ * History 发布出去的统计不再修改：新增记录时复制一份（复制构造函数）更新后整体替换，
+ * 读者在任意线程中读到的都是完整的统计。
+ */
+public class TasteProfile {
+    public static final double DEFAULT_HALF_LIFE_DAYS = 180;
+
+    private int[] genreCounts = new int[0];
+    private int[] categoryCounts = new int[0];
+    private int favoriteGenreCode = StringDictionary.NONE;
+    private int favoriteCategoryCode = StringDictionary.NONE;
+    private int movieCount;
+    private long yearSum;
+    private double ratingSum;
+    private double minRating;
+    private double maxRating;
+    private double halfLifeDays = DEFAULT_HALF_LIFE_DAYS;
+    private double[] recentGenreWeights = new double[0];
+    private double recentTotal;
+    private int referenceDay = History.UNKNOWN_DAY;
+
+    public TasteProfile() {
+    }
+
+    /**
+     * 空的统计，使用指定的半衰期
+     * @param halfLifeDays 不大于0时使用默认值
+     */
+    TasteProfile(double halfLifeDays) {
+        if (halfLifeDays > 0) {
+            this.halfLifeDays = halfLifeDays;
+        }
+    }
+
+    /**
+     * 复制一份，之后对副本的修改不影响原来的统计
+     */
+    TasteProfile(TasteProfile other) {
+        this.genreCounts = other.genreCounts.clone();
+        this.categoryCounts = other.categoryCounts.clone();
+        this.favoriteGenreCode = other.favoriteGenreCode;
+        this.favoriteCategoryCode = other.favoriteCategoryCode;
+        this.movieCount = other.movieCount;
+        this.yearSum = other.yearSum;
+        this.ratingSum = other.ratingSum;
+        this.minRating = other.minRating;
+        this.maxRating = other.maxRating;
+        this.halfLifeDays = other.halfLifeDays;
+        this.recentGenreWeights = other.recentGenreWeights.clone();
+        this.recentTotal = other.recentTotal;
+        this.referenceDay = other.referenceDay;
+    }
+
+    /**
+     * 计入一部看过的电影。次数只增不减，某个类型或分类的次数超过当前最多的时才成为最喜欢的，
+     * 次数相同时保留先达到该次数的
+     */
+    void add(Movie movie, int epochDay) {
+        if (movie == null) {
+            return;
+        }
+        addRecent(movie.getGenreCode(), epochDay, 1);
+        int genre = movie.getGenreCode();
+        if (genre >= 0) {
+            genreCounts = ensureCapacity(genreCounts, genre + 1);
+            genreCounts[genre]++;
+            if (favoriteGenreCode == StringDictionary.NONE || genreCounts[genre] > genreCounts[favoriteGenreCode]) {
+                favoriteGenreCode = genre;
+            }
+        }
+        int category = movie.getCategoryCode();
+        if (category >= 0) {
+            categoryCounts = ensureCapacity(categoryCounts, category + 1);
+            categoryCounts[category]++;
+            if (favoriteCategoryCode == StringDictionary.NONE
+                    || categoryCounts[category] > categoryCounts[favoriteCategoryCode]) {
+                favoriteCategoryCode = category;
+            }
+        }
+        if (movieCount == 0) {
+            minRating = movie.getRating();
+            maxRating = movie.getRating();
+        } else {
+            minRating = Math.min(minRating, movie.getRating());
+            maxRating = Math.max(maxRating, movie.getRating());
+        }
+        movieCount++;
+        yearSum += movie.getYear();
+        ratingSum += movie.getRating();
+    }
+
+    /**
+     * 已统计的电影被重新观看（只更新日期）：次数不变，近期偏好从旧日期移到新日期
+     */
+    void rewatch(Movie movie, int previousDay, int epochDay) {
+        if (movie == null) {
+            return;
+        }
+        addRecent(movie.getGenreCode(), previousDay, -1);
+        addRecent(movie.getGenreCode(), epochDay, 1);
+    }
+
+    /**
+     * 统计到的电影数量（目录中不存在的电影不计入）
+     */
+    public int getMovieCount() {
+        return movieCount;
+    }
+
+    /**
+     * 某个类型编号的观看次数
+     */
+    public int getGenreCount(int genreCode) {
+        if (genreCode < 0 || genreCode >= genreCounts.length) {
+            return 0;
+        }
+        return genreCounts[genreCode];
+    }
+
+    /**
+     * 各类型的观看次数
+     * @return HashMap，键为类型，值为观看次数
+     */
+    public HashMap<String, Integer> getGenreCounts() {
+        HashMap<String, Integer> counts = new HashMap<>();
+        for (int code = 0; code < genreCounts.length; code++) {
+            if (genreCounts[code] > 0) {
+                counts.put(StringDictionary.GENRES.decode(code), genreCounts[code]);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * 看过最多的类型
+     * @return 没有统计到电影时返回null
+     */
+    public String getFavoriteGenre() {
+        if (favoriteGenreCode == StringDictionary.NONE) {
+            return null;
+        }
+        return StringDictionary.GENRES.decode(favoriteGenreCode);
+    }
+
+    /**
+     * 看过最多的分类
+     * @return 没有统计到电影时返回null
+     */
+    public String getFavoriteCategory() {
+        if (favoriteCategoryCode == StringDictionary.NONE) {
+            return null;
+        }
+        return StringDictionary.CATEGORIES.decode(favoriteCategoryCode);
+    }
+
+    /**
+     * 平均年份，没有统计到电影时返回0
+     */
+    public double getAverageYear() {
+        if (movieCount == 0) {
+            return 0;
+        }
+        return (double) yearSum / movieCount;
+    }
+
+    /**
+     * 平均评分，没有统计到电影时返回0
+     */
+    public double getAverageRating() {
+        if (movieCount == 0) {
+            return 0;
+        }
+        return ratingSum / movieCount;
+    }
+
+    public double getMinRating() {
+        return minRating;
+    }
+
+    public double getMaxRating() {
+        return maxRating;
+    }
+
+    public double getHalfLifeDays() {
+        return halfLifeDays;
+    }
+
+    /**
+     * 某个类型的近期偏好，所有类型之和为1
+     * @return 没有带日期的记录时返回0
+     */
+    public double getRecentGenreWeight(int genreCode) {
+        if (recentTotal <= 0 || genreCode < 0 || genreCode >= recentGenreWeights.length) {
+            return 0;
+        }
+        return recentGenreWeights[genreCode] / recentTotal;
+    }
+
+    /**
+     * 最近一次观看的纪元日，作为衰减的基准
+     * @return 没有带日期的记录时返回 History.UNKNOWN_DAY
+     */
+    public int getReferenceDay() {
+        return referenceDay;
+    }
+
+    private void addRecent(int genre, int epochDay, int sign) {
+        if (genre < 0 || epochDay == History.UNKNOWN_DAY) {
+            return;
+        }
+        if (referenceDay == History.UNKNOWN_DAY) {
+            referenceDay = epochDay;
+        } else if (epochDay > referenceDay) {
+            double factor = Math.pow(2, -(epochDay - referenceDay) / halfLifeDays);
+            for (int i = 0; i < recentGenreWeights.length; i++) {
+                recentGenreWeights[i] *= factor;
+            }
+            recentTotal *= factor;
+            referenceDay = epochDay;
+        }
+        if (genre >= recentGenreWeights.length) {
+            double[] grown = new double[Math.max(genre + 1, recentGenreWeights.length * 2)];
+            System.arraycopy(recentGenreWeights, 0, grown, 0, recentGenreWeights.length);
+            recentGenreWeights = grown;
+        }
+        double weight = sign * Math.pow(2, -(referenceDay - epochDay) / halfLifeDays);
+        // 减去权重时可能留下极小的负数舍入误差
+        recentGenreWeights[genre] = Math.max(0, recentGenreWeights[genre] + weight);
+        recentTotal = Math.max(0, recentTotal + weight);
+    }
+
+    private static int[] ensureCapacity(int[] counts, int size) {
+        if (size <= counts.length) {
+            return counts;
+        }
+        int[] grown = new int[Math.max(size, counts.length * 2)];
+        System.arraycopy(counts, 0, grown, 0, counts.length);
+        return grown;
+    }
+}
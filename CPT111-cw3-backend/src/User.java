@@ -1,3 +1,5 @@
+import java.util.BitSet;
+
 /**
  * User 类：包含所有用户的通用行为
  */
@@ -36,6 +38,13 @@ public class User {
         this.passwordHash = PasswordUtil.hash(newPassword);
     }
 
+    /**
+     * 重放变更日志时直接恢复已保存的哈希，避免再次哈希
+     */
+    void restorePasswordHash(String storedHash) {
+        this.passwordHash = storedHash.toLowerCase();
+    }
+
     public boolean verifyPassword(String rawPassword) {
         return PasswordUtil.verify(rawPassword, passwordHash);
     }
@@ -48,6 +57,17 @@ public class User {
         return history;
     }
 
+    /**
+     * 看过或已在观看列表中的电影编号，推荐时用一次位测试排除候选
+     * @return 新的集合，可以继续与其他用户的集合做批量运算
+     */
+    public BitSet getExcludedMovies() {
+        BitSet excluded = new BitSet();
+        history.addTo(excluded);
+        watchlist.addTo(excluded);
+        return excluded;
+    }
+
     public String getRole() {
         return role;
     }
@@ -0,0 +1,243 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * UserJournal类：users.csv 的追加式变更日志
+ * 每次对 Watchlist / History / User 的修改只追加一行记录，
+ * 加载时在快照之后重放，超过阈值后由 FileManager 在后台压缩成新的快照
+ */
+public class UserJournal {
+    public static final String WATCHLIST_ADD = "WATCHLIST_ADD";
+    public static final String WATCHLIST_REMOVE = "WATCHLIST_REMOVE";
+    /**
+     * 用一条记录保存整个观看列表，批量修改后只需写一次
+     */
+    public static final String WATCHLIST_SET = "WATCHLIST_SET";
+    public static final String HISTORY_ADD = "HISTORY_ADD";
+    public static final String PASSWORD = "PASSWORD";
+    public static final String USER_CREATE = "USER_CREATE";
+
+    private final File activeFile;
+    private final File compactingFile;
+    private FileOutputStream output;
+    private BufferedWriter writer;
+
+    /**
+     * 构造函数
+     * @param journalPath 日志文件路径，压缩中的日志使用同名 ".compacting" 文件
+     */
+    public UserJournal(String journalPath) {
+        this.activeFile = new File(journalPath);
+        this.compactingFile = new File(journalPath + ".compacting");
+    }
+
+    /**
+     * 组装一条记录
+     * @param operation 操作类型
+     * @param username 用户名
+     * @param values 操作参数
+     */
+    public static String[] record(String operation, String username, String... values) {
+        String[] fields = new String[values.length + 2];
+        fields[0] = operation;
+        fields[1] = username;
+        for (int i = 0; i < values.length; i++) {
+            fields[i + 2] = values[i];
+        }
+        return fields;
+    }
+
+    /**
+     * 追加一条记录并立即刷新到磁盘
+     * @param fields 记录字段：操作类型、用户名以及参数
+     * @return 追加后活动日志的字节数
+     */
+    public long append(String... fields) throws IOException {
+        List<String[]> records = new ArrayList<>();
+        records.add(fields);
+        return appendAll(records);
+    }
+
+    /**
+     * 一次写入多条记录，只刷新并 fsync 一次
+     * @param records 每条记录的字段
+     * @return 追加后活动日志的字节数
+     */
+    public synchronized long appendAll(List<String[]> records) throws IOException {
+        if (writer == null) {
+            output = new FileOutputStream(activeFile, true);
+            writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+        }
+        for (String[] fields : records) {
+            List<String> values = new ArrayList<>();
+            for (String field : fields) {
+                values.add(field);
+            }
+            writer.write(String.join(",", FileManager.escapeCsv(values)));
+            writer.newLine();
+        }
+        writer.flush();
+        output.getChannel().force(false);
+        return activeFile.length();
+    }
+
+    /**
+     * 把活动日志改名为压缩中的日志，之后的追加写入新的活动日志
+     * @return 如果已有压缩在进行或没有可压缩的内容返回false
+     */
+    public synchronized boolean rotate() throws IOException {
+        if (compactingFile.exists() || !activeFile.exists()) {
+            return false;
+        }
+        closeWriter();
+        if (!activeFile.renameTo(compactingFile)) {
+            throw new IOException("Unable to rotate journal " + activeFile.getPath());
+        }
+        return true;
+    }
+
+    public synchronized boolean hasPendingCompaction() {
+        return compactingFile.exists();
+    }
+
+    /**
+     * 压缩完成后删除已合并进快照的日志
+     */
+    public synchronized void finishCompaction() {
+        compactingFile.delete();
+    }
+
+    /**
+     * 完整快照写入后丢弃全部日志
+     */
+    public synchronized void clear() throws IOException {
+        closeWriter();
+        compactingFile.delete();
+        activeFile.delete();
+    }
+
+    /**
+     * 按顺序重放压缩中的日志和活动日志
+     * @param users 刚从快照加载的用户
+     * @return 日志中出现过的用户名
+     */
+    public synchronized HashSet<String> replayInto(HashMap<String, User> users) throws IOException {
+        if (writer != null) {
+            writer.flush();
+        }
+        HashSet<String> usernames = new HashSet<>();
+        for (String[] record : readFile(compactingFile)) {
+            apply(record, users);
+            usernames.add(record[1].trim());
+        }
+        for (String[] record : readFile(activeFile)) {
+            apply(record, users);
+            usernames.add(record[1].trim());
+        }
+        return usernames;
+    }
+
+    /**
+     * 只重放压缩中的日志（后台压缩时使用）
+     */
+    public void replayCompactingInto(HashMap<String, User> users) throws IOException {
+        for (String[] record : readCompacting()) {
+            apply(record, users);
+        }
+    }
+
+    /**
+     * 读取压缩中的日志，分片存储据此只加载和重写涉及的分片
+     */
+    public List<String[]> readCompacting() throws IOException {
+        return readFile(compactingFile);
+    }
+
+    /**
+     * 读取日志文件中的记录，跳过空行和字段不足的行
+     */
+    private static List<String[]> readFile(File file) throws IOException {
+        List<String[]> records = new ArrayList<>();
+        if (!file.exists()) {
+            return records;
+        }
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                String[] record = FileManager.splitCsvLine(line);
+                if (record.length >= 2) {
+                    records.add(record);
+                }
+            }
+        }
+        return records;
+    }
+
+    /**
+     * 应用一条记录。所有操作都是幂等的，压缩中途崩溃后重复重放也会得到同样的结果
+     */
+    static void apply(String[] record, HashMap<String, User> users) {
+        if (record.length < 2) {
+            return;
+        }
+        String operation = record[0].trim();
+        String username = record[1].trim();
+        if (USER_CREATE.equals(operation)) {
+            if (record.length >= 4 && !users.containsKey(username)) {
+                users.put(username, UserFactory.createUser(username, record[2].trim(), record[3].trim()));
+            }
+            return;
+        }
+        User user = users.get(username);
+        if (user == null) {
+            return;
+        }
+        if (WATCHLIST_SET.equals(operation)) {
+            // 空的观看列表可能被写成没有第三个字段的记录
+            if (record.length >= 3) {
+                user.getWatchlist().replaceWith(record[2]);
+            } else {
+                user.getWatchlist().replaceWith("");
+            }
+            return;
+        }
+        if (record.length < 3) {
+            return;
+        }
+        String value = record[2].trim();
+        if (WATCHLIST_ADD.equals(operation)) {
+            user.getWatchlist().addMovie(value);
+        } else if (WATCHLIST_REMOVE.equals(operation)) {
+            user.getWatchlist().removeMovie(value);
+        } else if (HISTORY_ADD.equals(operation)) {
+            if (record.length >= 4) {
+                user.getHistory().addMovie(value, record[3].trim());
+            }
+        } else if (PASSWORD.equals(operation)) {
+            user.restorePasswordHash(value);
+        }
+    }
+
+    private void closeWriter() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+            output = null;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * UserRepository接口：用户数据的存储方式
+ * 单个用户的修改以日志记录（见 UserJournal）的形式提交，
+ * 由具体实现决定是追加到日志文件还是直接更新该用户的存储
+ */
+public interface UserRepository {
+    /**
+     * 加载全部用户
+     */
+    HashMap<String, User> loadUsers() throws IOException;
+
+    /**
+     * 写出全部用户
+     */
+    void saveUsers(HashMap<String, User> users) throws IOException;
+
+    /**
+     * 在修改发生的线程上生成一条记录
+     * @param operation UserJournal 中定义的操作类型
+     * @param user 被修改的用户
+     * @param values 操作参数
+     * @return 记录字段，之后交给 appendChanges
+     */
+    String[] prepareChange(String operation, User user, String... values);
+
+    /**
+     * 写入一批记录（可以在后台线程调用）
+     */
+    void appendChanges(List<String[]> records) throws IOException;
+
+    /**
+     * 程序退出时调用，完成最后的保存并释放资源
+     * @param users 全部用户
+     */
+    void close(HashMap<String, User> users) throws IOException;
+}
@@ -1,17 +1,25 @@
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 
 /**
  * Watchlist类管理用户的观看列表
- * 使用ArrayList存储电影ID
+ * 内部用 LinkedHashSet 按加入顺序存储电影ID的字典编号（StringDictionary.MOVIE_IDS），对外仍使用字符串ID，
+ * 添加、检查和移除都是 O(1)。Premium 用户的观看列表没有上限，因此不使用需要线性查找或移动元素的数组。
+ * 另外用一个按编号索引的 BitSet 记录成员，可以与观看历史做批量位运算
  */
 public class Watchlist {
-    private ArrayList<String> movieIds;
+    private final LinkedHashSet<Integer> handles = new LinkedHashSet<>();
+    private final BitSet members = new BitSet();
+    private int version;
 
     /**
      * 构造函数
      */
     public Watchlist() {
-        this.movieIds = new ArrayList<>();
     }
 
     /**
@@ -19,14 +27,8 @@ public class Watchlist {
      * @param watchlistString 格式：M001;M002;M003
      */
     public Watchlist(String watchlistString) {
-        this.movieIds = new ArrayList<>();
-        if (watchlistString != null && !watchlistString.trim().isEmpty()) {
-            String[] ids = watchlistString.split(";");
-            for (String id : ids) {
-                if (id != null && !id.trim().isEmpty()) {
-                    this.movieIds.add(id.trim());
-                }
-            }
+        for (String id : parseIds(watchlistString)) {
+            insert(StringDictionary.MOVIE_IDS.encode(id));
         }
     }
 
@@ -39,8 +41,8 @@ public class Watchlist {
         if (movieId == null || movieId.trim().isEmpty()) {
             return false;
         }
-        if (!movieIds.contains(movieId.trim())) {
-            movieIds.add(movieId.trim());
+        if (insert(StringDictionary.MOVIE_IDS.encode(movieId.trim()))) {
+            version++;
             return true;
         }
         return false;
@@ -55,7 +57,100 @@ public class Watchlist {
         if (movieId == null || movieId.trim().isEmpty()) {
             return false;
         }
-        return movieIds.remove(movieId.trim());
+        if (delete(StringDictionary.MOVIE_IDS.find(movieId.trim()))) {
+            version++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 批量添加，已存在的电影保持原来的位置
+     * @param movieIds 电影ID
+     * @return 每个ID是否被添加（按参数顺序）；整个操作只增加一次修改次数
+     */
+    public LinkedHashMap<String, Boolean> addAll(Collection<String> movieIds) {
+        LinkedHashMap<String, Boolean> results = new LinkedHashMap<>();
+        boolean changed = false;
+        for (String movieId : movieIds) {
+            boolean added = false;
+            if (movieId != null && !movieId.trim().isEmpty()) {
+                added = insert(StringDictionary.MOVIE_IDS.encode(movieId.trim()));
+            }
+            results.put(movieId, added);
+            changed = changed || added;
+        }
+        if (changed) {
+            version++;
+        }
+        return results;
+    }
+
+    /**
+     * 批量移除
+     * @param movieIds 电影ID
+     * @return 每个ID是否被移除（按参数顺序）；整个操作只增加一次修改次数
+     */
+    public LinkedHashMap<String, Boolean> removeAll(Collection<String> movieIds) {
+        LinkedHashMap<String, Boolean> results = new LinkedHashMap<>();
+        boolean changed = false;
+        for (String movieId : movieIds) {
+            boolean removed = false;
+            if (movieId != null && !movieId.trim().isEmpty()) {
+                removed = delete(StringDictionary.MOVIE_IDS.find(movieId.trim()));
+            }
+            results.put(movieId, removed);
+            changed = changed || removed;
+        }
+        if (changed) {
+            version++;
+        }
+        return results;
+    }
+
+    /**
+     * 只保留参数中出现的电影
+     * @param movieIds 要保留的电影ID
+     * @return 调用前观看列表中的每个ID是否被移除（按观看列表顺序）
+     */
+    public LinkedHashMap<String, Boolean> retainAll(Collection<String> movieIds) {
+        BitSet keep = new BitSet();
+        for (String movieId : movieIds) {
+            if (movieId != null) {
+                int handle = StringDictionary.MOVIE_IDS.find(movieId.trim());
+                if (handle >= 0) {
+                    keep.set(handle);
+                }
+            }
+        }
+        LinkedHashMap<String, Boolean> results = new LinkedHashMap<>();
+        Iterator<Integer> iterator = handles.iterator();
+        while (iterator.hasNext()) {
+            int handle = iterator.next();
+            boolean removed = !keep.get(handle);
+            if (removed) {
+                iterator.remove();
+                members.clear(handle);
+            }
+            results.put(StringDictionary.MOVIE_IDS.decode(handle), removed);
+        }
+        if (results.containsValue(Boolean.TRUE)) {
+            version++;
+        }
+        return results;
+    }
+
+    /**
+     * 用另一份列表替换全部内容（重放 UserJournal.WATCHLIST_SET 时使用）
+     * @param watchlistString 格式：M001;M002;M003
+     */
+    public void replaceWith(String watchlistString) {
+        handles.clear();
+        members.clear();
+        for (String id : parseIds(watchlistString)) {
+            insert(StringDictionary.MOVIE_IDS.encode(id));
+        }
+        version++;
     }
 
     /**
@@ -67,7 +162,28 @@ public class Watchlist {
         if (movieId == null) {
             return false;
         }
-        return movieIds.contains(movieId.trim());
+        return containsHandle(StringDictionary.MOVIE_IDS.find(movieId.trim()));
+    }
+
+    /**
+     * 按字典编号检查电影是否在观看列表中
+     */
+    public boolean containsHandle(int handle) {
+        return handle >= 0 && members.get(handle);
+    }
+
+    /**
+     * 观看列表中电影的编号集合（副本），可以与其他集合做批量与、或运算
+     */
+    public BitSet getMovieBits() {
+        return (BitSet) members.clone();
+    }
+
+    /**
+     * 把观看列表中的电影加入给定集合
+     */
+    void addTo(BitSet target) {
+        target.or(members);
     }
 
     /**
@@ -75,7 +191,32 @@ public class Watchlist {
      * @return 电影ID列表
      */
     public ArrayList<String> getMovieIds() {
-        return new ArrayList<>(movieIds); // 返回副本以保护封装
+        ArrayList<String> ids = new ArrayList<>(handles.size());
+        for (int handle : handles) {
+            ids.add(StringDictionary.MOVIE_IDS.decode(handle));
+        }
+        return ids;
+    }
+
+    /**
+     * 获取观看列表中所有电影的字典编号
+     * @return 按加入顺序排列的编号
+     */
+    public int[] getMovieHandles() {
+        int[] copy = new int[handles.size()];
+        int i = 0;
+        for (int handle : handles) {
+            copy[i] = handle;
+            i++;
+        }
+        return copy;
+    }
+
+    /**
+     * 修改次数，每次添加或移除电影时加一，用于判断缓存的推荐是否过期
+     */
+    public int getVersion() {
+        return version;
     }
 
     /**
@@ -83,7 +224,7 @@ public class Watchlist {
      * @return 观看列表中的电影数量
      */
     public int size() {
-        return movieIds.size();
+        return handles.size();
     }
 
     /**
@@ -91,7 +232,7 @@ public class Watchlist {
      * @return 如果为空返回true，否则返回false
      */
     public boolean isEmpty() {
-        return movieIds.isEmpty();
+        return handles.isEmpty();
     }
 
     /**
@@ -100,17 +241,42 @@ public class Watchlist {
      */
     @Override
     public String toString() {
-        if (movieIds.isEmpty()) {
-            return "";
-        }
-        String result = "";
-        for (int i = 0; i < movieIds.size(); i++) {
-            result = result + movieIds.get(i);
-            if (i < movieIds.size() - 1) {
-                result = result + ";";
+        StringBuilder result = new StringBuilder();
+        for (int handle : handles) {
+            if (result.length() > 0) {
+                result.append(';');
             }
+            result.append(StringDictionary.MOVIE_IDS.decode(handle));
         }
-        return result;
+        return result.toString();
+    }
+
+    private static ArrayList<String> parseIds(String watchlistString) {
+        ArrayList<String> ids = new ArrayList<>();
+        if (watchlistString != null && !watchlistString.trim().isEmpty()) {
+            for (String id : watchlistString.split(";")) {
+                if (id != null && !id.trim().isEmpty()) {
+                    ids.add(id.trim());
+                }
+            }
+        }
+        return ids;
+    }
+
+    private boolean insert(int handle) {
+        if (!handles.add(handle)) {
+            return false;
+        }
+        members.set(handle);
+        return true;
     }
-}
 
+    private boolean delete(int handle) {
+        if (!containsHandle(handle)) {
+            return false;
+        }
+        handles.remove(handle);
+        members.clear(handle);
+        return true;
+    }
+}